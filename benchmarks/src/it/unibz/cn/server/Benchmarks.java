@@ -0,0 +1,24 @@
+package it.unibz.cn.server;
+
+/**
+ * Shared setup for the JMH benchmarks in this package.
+ */
+final class Benchmarks {
+
+    private Benchmarks() {
+    }
+
+    /**
+     * A client that throws away everything sent to it.
+     */
+    static Client discardingClient() {
+        return new Client() {
+            void send(Frame frame) {
+            }
+
+            int queuedMessages() {
+                return 0;
+            }
+        };
+    }
+}
@@ -0,0 +1,74 @@
+package it.unibz.cn.server;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hammers TCPServer.placeBid from many threads at once and reports how many
+ * bids per second the server accepts and rejects.
+ * Usage: BidContentionBenchmark [threads] [seconds]
+ */
+public class BidContentionBenchmark {
+
+    public static void main(String args[]) throws InterruptedException {
+        int threads = (args.length >= 1) ? Integer.parseInt(args[0]) : 64;
+        int seconds = (args.length >= 2) ? Integer.parseInt(args[1]) : 10;
+
+        // One open item and no connected clients, so broadcasts cost nothing
+        Item item = new Item(1, "Benchmark Lot", 100, 1);
+        TCPServer.liveLots.put(item.lotId, item);
+
+        LongAdder attempts = new LongAdder();
+        LongAdder rejected = new LongAdder();
+        // Every "[Bid] Rejected" reply to a bidder is a rejected bid
+        Client rejectCounter = new Client() {
+            public void send(Frame frame) {
+            }
+
+            int queuedMessages() {
+                return 0;
+            }
+
+            public void sendMessage(String msg) {
+                if (msg.startsWith("[Bid] Rejected")) {
+                    rejected.increment();
+                }
+            }
+        };
+
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] bidders = new Thread[threads];
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        for (int i = 0; i < threads; i++) {
+            String nickname = "bidder" + i;
+            bidders[i] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                while (System.nanoTime() < deadline) {
+                    // Bid exactly the minimum, so concurrent bidders collide
+                    long amount = item.getMinimumNextBid();
+                    TCPServer.placeBid(nickname, item.lotId, amount, rejectCounter);
+                    attempts.increment();
+                }
+            });
+            bidders[i].start();
+        }
+
+        long started = System.nanoTime();
+        start.countDown();
+        for (Thread t : bidders) {
+            t.join();
+        }
+        double elapsed = (System.nanoTime() - started) / 1e9;
+
+        long total = attempts.sum();
+        long rejects = rejected.sum();
+        System.out.printf("threads=%d seconds=%.1f%n", threads, elapsed);
+        System.out.printf("accepted bids/sec: %,.0f%n", (total - rejects) / elapsed);
+        System.out.printf("rejected bids/sec: %,.0f%n", rejects / elapsed);
+        System.out.printf("total bids/sec:    %,.0f%n", total / elapsed);
+    }
+}
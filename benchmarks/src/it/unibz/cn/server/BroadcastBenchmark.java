@@ -0,0 +1,73 @@
+package it.unibz.cn.server;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Cost of one TCPServer.broadcast to 10, 1k and 10k connected clients, and
+ * of one lot's news when a tenth of them watch that lot. The clients are
+ * mocks whose send() queues on a real OutboundQueue, so this measures the
+ * encode plus the fan-out up to the socket writers.
+ * Nobody drains the queues, so after the first thousand broadcasts every
+ * enqueue also drops the oldest frame.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BroadcastBenchmark {
+
+    @Param({"10", "1000", "10000"})
+    public int clients;
+
+    static final class QueueingClient extends Client {
+        final OutboundQueue outbound = new OutboundQueue(1024, SlowConsumerPolicy.DROP_OLDEST);
+
+        void send(Frame frame) {
+            outbound.offer(frame);
+        }
+
+        int queuedMessages() {
+            return outbound.size();
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        TCPServer.allClients.clear();
+        Item lot = new Item(1, "Vintage Monet Painting", 100000, 5000);
+        TCPServer.liveLots.put(lot.lotId, lot);
+        for (int i = 0; i < clients; i++) {
+            QueueingClient client = new QueueingClient();
+            TCPServer.allClients.add(client);
+            Subscriptions.register(client);
+            if (i % 10 == 0) {
+                Subscriptions.watch(client, lot.lotId);
+            } else {
+                Subscriptions.watchAll(client, false); // Following other lots
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (Client client : TCPServer.allClients) {
+            Subscriptions.unregister(client);
+        }
+        TCPServer.allClients.clear();
+        TCPServer.liveLots.clear();
+    }
+
+    @Benchmark
+    public void broadcast() {
+        TCPServer.broadcast("--- NEW HIGH BID: alice bids $1050.00 for 'Vintage Monet Painting' (lot 1) ---");
+    }
+
+    @Benchmark
+    public void broadcastToWatchers() {
+        TCPServer.broadcast(1, "--- NEW HIGH BID: alice bids $1050.00 for 'Vintage Monet Painting' (lot 1) ---");
+    }
+}
@@ -0,0 +1,109 @@
+package it.unibz.cn.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Cost of turning a received bid frame into a call to placeBid.
+ * Run with -prof gc to see bytes/op next to ns/op.
+ * <ul>
+ *   <li>legacyParse: readUTF, then indexOf/substring/trim/split and
+ *       Double.parseDouble, as Connection used to do it</li>
+ *   <li>parse: the same fields scanned in place with CommandParser and
+ *       Money</li>
+ *   <li>textBidFrame / binaryBidFrame: Commands.handleFrame end to end,
+ *       including the bid (rejected as too low) and its reply</li>
+ * </ul>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandParsingBenchmark {
+
+    private static final String RAW_BID = "alice_bidder: /bid 1 1050.50";
+
+    private byte[] encodedBid;
+    private ByteBuffer textBid;
+    private ByteBuffer binaryBid;
+    private Client textClient;
+    private Client binaryClient;
+
+    @Setup
+    public void setUp() throws IOException {
+        // A lot whose minimum is above the benchmark's bid, so every bid is
+        // rejected and the state never changes between invocations
+        Item item = new Item(1, "Benchmark Lot", 1_000_000, 100);
+        TCPServer.liveLots.put(item.lotId, item);
+
+        encodedBid = ModifiedUtf8.encodeFrame(RAW_BID);
+        textBid = ByteBuffer.wrap(encodedBid, 2, encodedBid.length - 2).slice();
+        textClient = Benchmarks.discardingClient();
+
+        Session session = Session.login("alice_bidder");
+        binaryClient = Benchmarks.discardingClient();
+        binaryClient.startSession(session);
+        ByteBuffer frame = ByteBuffer.allocate(32);
+        frame.put(BinaryProtocol.BID);
+        putVarLong(frame, session.id);
+        putVarLong(frame, 1);
+        putVarLong(frame, 105050);
+        binaryBid = frame.flip().slice();
+    }
+
+    private static void putVarLong(ByteBuffer buf, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buf.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buf.put((byte) value);
+    }
+
+    @Benchmark
+    public long legacyParse() throws IOException {
+        String rawData = new DataInputStream(new ByteArrayInputStream(encodedBid)).readUTF();
+        int separatorIndex = rawData.indexOf(": ");
+        String nickname = rawData.substring(0, separatorIndex);
+        String message = rawData.substring(separatorIndex + 2).trim();
+        String[] parts = message.split(" ");
+        int lotId = Integer.parseInt(parts[1]);
+        double bidAmount = Double.parseDouble(parts[2]);
+        return nickname.length() + lotId + (long) (bidAmount * 100);
+    }
+
+    @Benchmark
+    public long parse() throws IOException {
+        ByteBuffer buf = textBid;
+        int end = buf.limit();
+        int separator = CommandParser.separator(buf, 0, end);
+        String nickname = textClient.nickname(buf, 0, separator);
+        int messageStart = CommandParser.skipWhitespace(buf, separator + 2, end);
+        int messageEnd = CommandParser.trimWhitespace(buf, messageStart, end);
+        int wordEnd = CommandParser.endOfWord(buf, messageStart, messageEnd);
+        int lotStart = CommandParser.skipWhitespace(buf, wordEnd, messageEnd);
+        int lotEnd = CommandParser.endOfWord(buf, lotStart, messageEnd);
+        int amountStart = CommandParser.skipWhitespace(buf, lotEnd, messageEnd);
+        int lotId = CommandParser.parseInt(buf, lotStart, lotEnd);
+        long bidAmount = Money.parseCents(buf, amountStart, messageEnd);
+        return nickname.length() + lotId + bidAmount;
+    }
+
+    @Benchmark
+    public boolean textBidFrame() throws IOException {
+        textBid.position(0);
+        return Commands.handleFrame(textBid, textClient);
+    }
+
+    @Benchmark
+    public boolean binaryBidFrame() throws IOException {
+        binaryBid.position(0);
+        return Commands.handleFrame(binaryBid, binaryClient);
+    }
+}
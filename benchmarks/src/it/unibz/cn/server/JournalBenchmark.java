@@ -0,0 +1,81 @@
+package it.unibz.cn.server;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Bids per second through TCPServer.placeBid under each journal durability
+ * setting. Like a real client, every bidder waits for the reply to its bid
+ * before bidding again, so the accepted ones wait for the journal; with 32
+ * bidders the group commit lets them share each write and fsync.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(32)
+public class JournalBenchmark {
+
+    @Param({ "off", "async", "write", "fsync" })
+    public String sync;
+
+    private Path dir;
+    private Item item;
+
+    @State(Scope.Thread)
+    public static class Bidder {
+        String nickname;
+        final Semaphore replies = new Semaphore(0);
+        Client client;
+
+        @Setup
+        public void setUp() {
+            nickname = "bidder" + Thread.currentThread().getId();
+            client = new Client() {
+                void send(Frame frame) {
+                    replies.release();
+                }
+
+                int queuedMessages() {
+                    return 0;
+                }
+            };
+        }
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        TCPServer.allClients.clear();
+        dir = Files.createTempDirectory("journal-benchmark");
+        TCPServer.journal = Journal.open(dir, JournalSync.parse(sync), 64L * 1024 * 1024, 1000);
+        item = new Item(1, "Benchmark Lot", 100, 1);
+        TCPServer.liveLots.put(item.lotId, item);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        TCPServer.journal.close();
+        TCPServer.journal = Journal.DISABLED;
+        TCPServer.liveLots.clear();
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Benchmark
+    public void bid(Bidder bidder) throws InterruptedException {
+        TCPServer.placeBid(bidder.nickname, item.lotId, item.getMinimumNextBid(), bidder.client);
+        bidder.replies.acquire();
+    }
+}
@@ -0,0 +1,62 @@
+package it.unibz.cn.server;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Bids per second through TCPServer.placeBid with 1, 8 and 64 bidders all
+ * going for the same lot. Every bidder bids the current minimum, so
+ * concurrent bidders collide and most of them lose.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlaceBidBenchmark {
+
+    private Item item;
+    private Client bidderClient;
+
+    @State(Scope.Thread)
+    public static class Bidder {
+        String nickname;
+
+        @Setup
+        public void setUp() {
+            nickname = "bidder" + Thread.currentThread().getId();
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        TCPServer.allClients.clear();
+        item = new Item(1, "Benchmark Lot", 100, 1);
+        TCPServer.liveLots.put(item.lotId, item);
+        bidderClient = Benchmarks.discardingClient();
+    }
+
+    private void bid(Bidder bidder) {
+        TCPServer.placeBid(bidder.nickname, item.lotId, item.getMinimumNextBid(), bidderClient);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void placeBid1(Bidder bidder) {
+        bid(bidder);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void placeBid8(Bidder bidder) {
+        bid(bidder);
+    }
+
+    @Benchmark
+    @Threads(64)
+    public void placeBid64(Bidder bidder) {
+        bid(bidder);
+    }
+}
@@ -0,0 +1,73 @@
+package it.unibz.cn.server;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Cold start and snapshot cost for a large catalogue: how long it takes to
+ * map a snapshot of 500k finished lots (a third of them sold), replay the
+ * journal after it and look up a lot, and how long taking such a snapshot
+ * takes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SnapshotBenchmark {
+
+    @Param({ "500000" })
+    public int lots;
+
+    private Path dir;
+    private Journal journal;
+    private Catalogue catalogue;
+
+    @Setup
+    public void setUp() throws IOException, InterruptedException {
+        dir = Files.createTempDirectory("snapshot-benchmark");
+        journal = Journal.open(dir, JournalSync.WRITE, 64L * 1024 * 1024, 1000);
+        Map<Integer, BidState> finished = new HashMap<>();
+        for (int i = 1; i <= lots; i++) {
+            finished.put(i, (i % 3 == 0)
+                ? new BidState(10_000 + i, "bidder" + (i % 1000), 1, true)
+                : new BidState(0, null, 0, true));
+        }
+        catalogue = Catalogue.of(List.of(), null, finished, Map.of());
+        Snapshot.take(dir, journal, catalogue, List.of());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        journal.close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Benchmark
+    public BidState coldStart() throws IOException {
+        Snapshot snapshot = Snapshot.load(dir);
+        Map<Integer, BidState> recovered = new HashMap<>();
+        Map<Integer, Long> closingTimes = new HashMap<>();
+        Journal.recover(dir, recovered, closingTimes, snapshot.journalSegment());
+        return Catalogue.of(List.of(), snapshot, recovered, closingTimes).state(lots / 2);
+    }
+
+    @Benchmark
+    public void takeSnapshot() throws IOException, InterruptedException {
+        Snapshot.take(dir, journal, catalogue, List.of());
+    }
+}
@@ -0,0 +1,66 @@
+package it.unibz.cn.server;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Cost of sending one client a lot's status, as /list and every welcome
+ * message do.
+ * <ul>
+ *   <li>formatted: String.format and one frame per line, as
+ *       Commands.sendItemStatus used to do it</li>
+ *   <li>cached: Item.statusFrame, built once per bidding state</li>
+ *   <li>cachedAfterBid: a bid lands before every status, so each one is
+ *       built anew (the worst case)</li>
+ * </ul>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StatusBenchmark {
+
+    private Item item;
+    private Client client;
+    private long amount;
+
+    @Setup
+    public void setUp() {
+        item = new Item(1, "Vintage Monet Painting", 100000, 5000);
+        item.tryBid("alice_bidder", 150000);
+        client = Benchmarks.discardingClient();
+        amount = 150000;
+    }
+
+    @Benchmark
+    public void formatted() {
+        BidState state = item.state();
+        client.sendMessage("--- Current Item Status ---");
+        client.sendMessage(item.toString());
+        if (state.hasBids()) {
+            client.sendMessage(String.format(
+                "Current Bid: $%s (by %s)",
+                Money.format(state.amount), state.bidder
+            ));
+        } else {
+            client.sendMessage(String.format(
+                "No bids yet. Minimum bid is $%s",
+                Money.format(item.getMinimumNextBid())
+            ));
+        }
+    }
+
+    @Benchmark
+    public void cached() {
+        client.send(item.statusFrame());
+    }
+
+    @Benchmark
+    public void cachedAfterBid() {
+        item.tryBid("alice_bidder", amount += 5000);
+        client.send(item.statusFrame());
+    }
+}
@@ -0,0 +1,53 @@
+package it.unibz.cn.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Cost of encoding one message in writeUTF framing: DataOutputStream itself
+ * (what every client used to pay per broadcast) against ModifiedUtf8 and
+ * the heap and off-heap Frames the server sends now.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WriteUtfBenchmark {
+
+    @Param({
+        "Type /help for a list of commands.",
+        "--- NEW HIGH BID: alice bids $1050.00 for 'Signed 1st Edition «Ulysses»' (lot 3) ---"
+    })
+    public String message;
+
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+    private final DataOutputStream out = new DataOutputStream(bytes);
+
+    @Benchmark
+    public int dataOutputStream() throws IOException {
+        bytes.reset();
+        out.writeUTF(message);
+        return bytes.size();
+    }
+
+    @Benchmark
+    public byte[] modifiedUtf8() throws IOException {
+        return ModifiedUtf8.encodeFrame(message);
+    }
+
+    @Benchmark
+    public Frame heapFrame() {
+        return Frame.of(message);
+    }
+
+    @Benchmark
+    public Frame broadcastFrame() {
+        return Frame.forBroadcast(message);
+    }
+}
@@ -0,0 +1,219 @@
+package it.unibz.cn.client;
+
+import java.io.*;
+import java.net.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+
+/**
+ * A client for programs rather than people, e.g. bidding bots. Calls never
+ * block on the network: commands go on an outbound queue that a writer
+ * thread drains, writing everything queued so far with one flush, and a
+ * reader thread decodes what the server sends.
+ * <pre>
+ *   try (AuctionClient client = AuctionClient.connect("localhost", 7896, "bot", System.out::println)) {
+ *       client.bid(1, 110000).thenAccept(reply -> ...);
+ *   }
+ * </pre>
+ * Many bids may be in flight at once. The server answers every bid with
+ * exactly one "[Bid] Accepted" or "[Bid] Rejected" message and never
+ * drops one. It sends them in the order the bids were sent, holding a
+ * quick rejection back behind an earlier bid still being journalled, so
+ * the replies complete the futures in order. Only the server sends "[Bid]": chat arrives as "nickname: text"
+ * and the server refuses nicknames starting with '['. Every other message
+ * goes to the event handler.
+ * Futures and the handler run on the reader thread and must not block.
+ */
+public class AuctionClient implements Closeable {
+
+    private final Socket socket;
+    private final String nickname;
+    private final Consumer<String> onEvent;
+
+    // Messages not yet written; the writer takes all there are at once
+    private final BlockingQueue<String> outbound = new LinkedBlockingQueue<>();
+    // Bids sent and not answered, oldest first. Guarded by this
+    private final ArrayDeque<CompletableFuture<String>> pending = new ArrayDeque<>();
+    private boolean closed; // Guarded by this
+    private Thread writer;
+
+    private AuctionClient(Socket socket, String nickname, Consumer<String> onEvent) {
+        this.socket = socket;
+        this.nickname = nickname;
+        this.onEvent = onEvent;
+    }
+
+    /**
+     * Connects as nickname; every message that is not a bid reply goes to
+     * onEvent.
+     * @throws IllegalArgumentException if the server would refuse nickname
+     */
+    public static AuctionClient connect(String host, int port, String nickname, Consumer<String> onEvent)
+            throws IOException {
+        if (nickname.startsWith("[") || nickname.contains(": ")) {
+            throw new IllegalArgumentException("Invalid nickname " + nickname);
+        }
+        Socket socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        AuctionClient client = new AuctionClient(socket, nickname, onEvent);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        client.writer = Thread.ofVirtual().name("auction-writer").start(() -> client.writeLoop(out));
+        Thread.ofVirtual().name("auction-reader").start(() -> client.readLoop(in));
+        return client;
+    }
+
+    /**
+     * Bids on a lot.
+     * @param cents The amount in cents
+     * @return The server's reply, "[Bid] Accepted: ..." or "[Bid] Rejected: ...";
+     *         failed with an IOException if the connection is lost first
+     */
+    public CompletableFuture<String> bid(int lot, long cents) {
+        checkLot(lot);
+        CompletableFuture<String> reply = new CompletableFuture<>();
+        String command = "/bid " + lot + " " + LoadGenerator.formatCents(cents);
+        // Queued in the order the replies will come
+        synchronized (this) {
+            if (closed) {
+                reply.completeExceptionally(new IOException("connection closed"));
+                return reply;
+            }
+            pending.addLast(reply);
+            outbound.add(command);
+        }
+        return reply;
+    }
+
+    /**
+     * Asks for a lot's status; it arrives as events.
+     */
+    public void list(int lot) {
+        checkLot(lot);
+        send("/list " + lot);
+    }
+
+    public void watch(int lot) {
+        checkLot(lot);
+        send("/watch " + lot);
+    }
+
+    public void unwatch(int lot) {
+        checkLot(lot);
+        send("/unwatch " + lot);
+    }
+
+    /**
+     * Follows every lot, or none but those watched one by one.
+     */
+    public void watchAll(boolean watch) {
+        send(watch ? "/watch all" : "/unwatch all");
+    }
+
+    public void chat(boolean on) {
+        send(on ? "/unmute chat" : "/mute chat");
+    }
+
+    public void say(String message) {
+        if (message.startsWith("/")) {
+            throw new IllegalArgumentException("Not a chat line: " + message);
+        }
+        send(message);
+    }
+
+    /**
+     * How many bids wait for their reply.
+     */
+    public synchronized int inFlight() {
+        return pending.size();
+    }
+
+    private static void checkLot(int lot) {
+        if (lot <= 0) {
+            throw new IllegalArgumentException("Invalid lot " + lot);
+        }
+    }
+
+    private void send(String message) {
+        synchronized (this) {
+            if (!closed) {
+                outbound.add(message);
+            }
+        }
+    }
+
+    private void writeLoop(DataOutputStream out) {
+        List<String> batch = new ArrayList<>();
+        try {
+            while (true) {
+                batch.add(outbound.take());
+                outbound.drainTo(batch);
+                for (String message : batch) {
+                    out.writeUTF(nickname + ": " + message);
+                }
+                out.flush();
+                batch.clear();
+            }
+        } catch (IOException e) {
+            lost(e);
+        } catch (InterruptedException e) {
+            /* closed */
+        }
+    }
+
+    private void readLoop(DataInputStream in) {
+        try {
+            while (true) {
+                String message = in.readUTF();
+                if (message.startsWith("[Bid] ")) {
+                    CompletableFuture<String> reply;
+                    synchronized (this) {
+                        reply = pending.pollFirst();
+                    }
+                    if (reply != null) {
+                        reply.complete(message);
+                        continue;
+                    }
+                }
+                onEvent.accept(message);
+            }
+        } catch (IOException e) {
+            lost(e);
+        }
+    }
+
+    /**
+     * Fails the bids still waiting; nothing more is sent.
+     */
+    private void lost(IOException cause) {
+        List<CompletableFuture<String>> unanswered;
+        synchronized (this) {
+            closed = true;
+            unanswered = new ArrayList<>(pending);
+            pending.clear();
+            outbound.clear();
+        }
+        for (CompletableFuture<String> reply : unanswered) {
+            reply.completeExceptionally(cause);
+        }
+        writer.interrupt();
+        try {
+            socket.close();
+        } catch (IOException e) {
+            /* already closed */
+        }
+    }
+
+    /**
+     * Closes the connection; bids still waiting fail.
+     */
+    @Override
+    public void close() {
+        lost(new IOException("connection closed"));
+    }
+}
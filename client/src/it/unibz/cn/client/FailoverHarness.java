@@ -0,0 +1,237 @@
+package it.unibz.cn.client;
+
+import java.io.*;
+import java.net.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Measures a failover: starts a primary TCPServer and a hot standby
+ * following it, has a few bidders push up the price of lot 1, kills the
+ * primary with SIGKILL and then asks the port for lot 1 until the standby
+ * answers. It prints how long clients were without an auction and which
+ * acknowledged bids the standby does not know about.
+ * Settings are system properties, e.g.
+ * <pre>
+ *   java -Dfailover.serverClasses=server/target/classes it.unibz.cn.client.FailoverHarness
+ * </pre>
+ * Both servers run on this host with their own journal directories under
+ * failover.dir, a new temporary directory unless set; their output goes to
+ * primary.log and standby.log there. Journals left there by an earlier
+ * run are deleted first, or the servers would resume that run's auction.
+ */
+public class FailoverHarness {
+
+    static final String SERVER_CLASSES = System.getProperty("failover.serverClasses", "server/target/classes");
+    static final String DIR = System.getProperty("failover.dir");
+    static final int PORT = Integer.getInteger("failover.port", 7930);
+    static final int STANDBY_PORT = Integer.getInteger("failover.standbyPort", 7931);
+    static final int FAILOVER_MILLIS = Integer.getInteger("failover.failoverMillis", 1000);
+    static final String JOURNAL_SYNC = System.getProperty("failover.journalSync", "write");
+    static final int BIDDERS = Integer.getInteger("failover.bidders", 8);
+    // Pause between a reply and a bidder's next bid
+    static final int BID_INTERVAL_MILLIS = Integer.getInteger("failover.bidInterval", 2);
+    static final int KILL_AFTER_SECONDS = Integer.getInteger("failover.killAfter", 5);
+
+    // Lot 1 of the built-in items: $1000 to start, $50 steps, in cents
+    static final int LOT = 1;
+    static final long START_CENTS = 100000;
+    static final long STEP_CENTS = 5000;
+
+    static final AtomicLong nextAmount = new AtomicLong(START_CENTS);
+    static final ConcurrentSkipListSet<Long> acknowledged = new ConcurrentSkipListSet<>();
+    static final LongAdder rejected = new LongAdder();
+    private static volatile boolean bidding = true;
+
+    public static void main(String args[]) throws Exception {
+        Path dir = (DIR != null) ? Files.createDirectories(Path.of(DIR)) : Files.createTempDirectory("failover");
+        for (String name : List.of("primary", "standby")) {
+            deleteTree(dir.resolve("journal-" + name));
+        }
+        System.out.println("Server journals and logs in " + dir);
+        Process primary = server(dir, "primary", "-Dauction.standbyPort=" + STANDBY_PORT);
+        Process standby = null;
+        try {
+            waitForPort(PORT, 20_000);
+            standby = server(dir, "standby", "-Dauction.primary=localhost:" + STANDBY_PORT);
+            waitForLog(dir.resolve("standby.log"), "Standing by", 20_000);
+            System.out.printf("Primary on port %d, standby following on %d; %d bidders on lot %d%n",
+                PORT, STANDBY_PORT, BIDDERS, LOT);
+
+            List<Thread> bidders = new ArrayList<>();
+            for (int i = 0; i < BIDDERS; i++) {
+                String nickname = "bidder" + i;
+                bidders.add(Thread.ofVirtual().start(() -> bid(nickname)));
+            }
+            Thread.sleep(KILL_AFTER_SECONDS * 1000L);
+
+            long killedAt = System.nanoTime();
+            primary.destroyForcibly();
+            bidding = false;
+            long highest = acknowledged.isEmpty() ? 0 : acknowledged.last();
+            System.out.printf("Killed the primary after %d acknowledged bids (%d rejected), highest $%s%n",
+                acknowledged.size(), rejected.sum(), LoadGenerator.formatCents(highest));
+
+            long standbyAmount = pollCurrentBid(killedAt + TimeUnit.SECONDS.toNanos(30));
+            long failoverMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - killedAt);
+            for (Thread bidder : bidders) {
+                bidder.join();
+            }
+            if (standbyAmount < 0) {
+                System.out.println("The standby did not take over within 30 s; see standby.log");
+                return;
+            }
+            long lost = acknowledged.stream().filter(amount -> amount > standbyAmount).count();
+            System.out.printf("Standby answered after %d ms (failoverMillis=%d) with $%s%n",
+                failoverMillis, FAILOVER_MILLIS, LoadGenerator.formatCents(standbyAmount));
+            System.out.printf("Acknowledged bids lost: %d%n", lost);
+
+            // The standby takes bids from where it is
+            String reply = request("/bid " + LOT + " " + LoadGenerator.formatCents(standbyAmount + STEP_CENTS), "[Bid] ");
+            System.out.println("Bid on the standby: " + reply);
+        } finally {
+            primary.destroyForcibly();
+            if (standby != null) {
+                standby.destroyForcibly();
+            }
+        }
+    }
+
+    private static Process server(Path dir, String name, String role) throws IOException {
+        List<String> command = List.of(
+            Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+            "-cp", SERVER_CLASSES,
+            role,
+            "-Dauction.port=" + PORT,
+            "-Dauction.metricsPort=0",
+            "-Dauction.journalDir=" + dir.resolve("journal-" + name),
+            "-Dauction.journalSync=" + JOURNAL_SYNC,
+            "-Dauction.failoverMillis=" + FAILOVER_MILLIS,
+            "-Dauction.startDelay=0",
+            "-Dauction.preview=1",
+            "-Dauction.bidding=600",
+            "it.unibz.cn.server.TCPServer", "nio"
+        );
+        return new ProcessBuilder(command)
+            .redirectErrorStream(true)
+            .redirectOutput(dir.resolve(name + ".log").toFile())
+            .start();
+    }
+
+    /**
+     * Bids one step above the last bid sent, waiting for each reply, until
+     * the primary is killed.
+     */
+    private static void bid(String nickname) {
+        try (
+            Socket s = new Socket("localhost", PORT);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+        ) {
+            while (bidding) {
+                long amount = nextAmount.addAndGet(STEP_CENTS);
+                out.writeUTF(nickname + ": /bid " + LOT + " " + LoadGenerator.formatCents(amount));
+                out.flush();
+                String reply;
+                do {
+                    reply = in.readUTF();
+                } while (!reply.startsWith("[Bid] "));
+                if (reply.startsWith("[Bid] Accepted")) {
+                    acknowledged.add(amount);
+                } else {
+                    rejected.increment();
+                }
+                Thread.sleep(BID_INTERVAL_MILLIS);
+            }
+        } catch (IOException e) {
+            // The primary is gone
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Asks for lot 1 until a server answers with its current bid.
+     * @return The current bid in cents, or -1 if none answered by deadline
+     */
+    private static long pollCurrentBid(long deadline) throws InterruptedException {
+        while (System.nanoTime() < deadline) {
+            try {
+                String status = request("/list " + LOT, "Current Bid: $");
+                if (status != null) {
+                    return LoadGenerator.parseCents(status, "Current Bid: $".length());
+                }
+            } catch (IOException e) {
+                // Nobody on the port yet
+            }
+            Thread.sleep(10);
+        }
+        return -1;
+    }
+
+    /**
+     * Sends one command and returns the first line starting with prefix,
+     * or null if none comes within a second.
+     */
+    private static String request(String command, String prefix) throws IOException {
+        try (Socket s = new Socket("localhost", PORT)) {
+            s.setSoTimeout(1000);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+            DataOutputStream out = new DataOutputStream(s.getOutputStream());
+            out.writeUTF("harness: " + command);
+            out.flush();
+            while (true) {
+                String line = in.readUTF();
+                if (line.startsWith(prefix)) {
+                    return line;
+                }
+            }
+        } catch (SocketTimeoutException e) {
+            return null;
+        }
+    }
+
+    private static void waitForPort(int port, long timeoutMillis) throws InterruptedException, IOException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (true) {
+            try {
+                new Socket("localhost", port).close();
+                return;
+            } catch (IOException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw e;
+                }
+                Thread.sleep(50);
+            }
+        }
+    }
+
+    private static void deleteTree(Path root) throws IOException {
+        if (!Files.exists(root)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(root)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    private static void waitForLog(Path log, String text, long timeoutMillis) throws InterruptedException, IOException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (!Files.exists(log) || !Files.readString(log).contains(text)) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IOException("no \"" + text + "\" in " + log);
+            }
+            Thread.sleep(50);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package it.unibz.cn.client;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * A fixed-size latency histogram in the style of HdrHistogram: values are
+ * counted in buckets that are linear within each power of two, so every
+ * recorded value keeps about two significant digits whatever its magnitude.
+ * Recording is lock-free and may happen from any number of threads.
+ */
+final class LatencyHistogram {
+
+    // 2^7 = 128 linear sub-buckets per power of two: under 1% error
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // Enough powers of two to cover any non-negative long
+    private static final int BUCKETS = 64 - SUB_BUCKET_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS * SUB_BUCKETS);
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Records one value, e.g. a latency in microseconds. Negative values
+     * count as zero.
+     */
+    void record(long value) {
+        value = Math.max(value, 0);
+        counts.incrementAndGet(indexOf(value));
+        max.accumulate(value);
+    }
+
+    long count() {
+        long total = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    long max() {
+        return max.get();
+    }
+
+    /**
+     * The smallest recorded value that percentile percent of the values do
+     * not exceed, to the histogram's precision.
+     */
+    long percentile(double percentile) {
+        long total = count();
+        if (total == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(highestValueAt(i), max());
+            }
+        }
+        return max();
+    }
+
+    /**
+     * "p50=.. p90=.. p99=.. p99.9=.. max=.." with the given unit suffix.
+     */
+    String summary(String unit) {
+        return String.format("n=%d p50=%d%s p90=%d%s p99=%d%s p99.9=%d%s max=%d%s",
+            count(), percentile(50), unit, percentile(90), unit, percentile(99), unit,
+            percentile(99.9), unit, max(), unit);
+    }
+
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value; // Bucket 0 holds 0..127 exactly
+        }
+        // Bucket b >= 1 holds [SUB_BUCKETS << (b - 1), SUB_BUCKETS << b).
+        // Shifted down by b - 1 such a value keeps its top bit, which is
+        // always set, and SUB_BUCKET_BITS more, which pick the sub-bucket.
+        int bucket = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> (bucket - 1)) & (SUB_BUCKETS - 1);
+        return bucket * SUB_BUCKETS + subBucket;
+    }
+
+    private static long highestValueAt(int index) {
+        int bucket = index / SUB_BUCKETS;
+        long subBucket = index % SUB_BUCKETS;
+        if (bucket == 0) {
+            return subBucket;
+        }
+        // The top bit and the sub-bucket are known; the low 'bucket - 1' bits vary
+        return ((SUB_BUCKETS + subBucket) << (bucket - 1)) | ((1L << (bucket - 1)) - 1);
+    }
+}
@@ -0,0 +1,358 @@
+package it.unibz.cn.client;
+
+import java.io.*;
+import java.net.*;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Headless load generator: simulates many users against a local TCPServer
+ * from one process, each user on its own virtual threads.
+ * <ul>
+ *   <li>bidders bid on one lot at a steady rate, and much faster in the
+ *       last seconds before that lot closes (a bid storm)</li>
+ *   <li>chatters send a chat line now and then</li>
+ *   <li>lurkers only listen</li>
+ * </ul>
+ * With load.watch every user only follows load.lot, and everyone but the
+ * chatters mutes chat, as users interested in one lot would.
+ * Connections are opened evenly over the ramp-up time. Every few seconds
+ * it prints bid round-trip latency (bid sent to its "[Bid]" reply),
+ * broadcast delivery lag (bid sent to its "NEW HIGH BID" arriving at each
+ * client) and throughput.
+ * Settings are system properties, e.g.
+ * <pre>
+ *   java -Dload.bidders=2000 -Dload.lurkers=5000 it.unibz.cn.client.LoadGenerator
+ * </pre>
+ */
+public class LoadGenerator {
+
+    static final String HOST = System.getProperty("load.host", "localhost");
+    static final int PORT = Integer.getInteger("load.port", 7896);
+    static final int BIDDERS = Integer.getInteger("load.bidders", 100);
+    static final int CHATTERS = Integer.getInteger("load.chatters", 10);
+    static final int LURKERS = Integer.getInteger("load.lurkers", 100);
+    static final int RAMP_UP_SECONDS = Integer.getInteger("load.rampUp", 10);
+    static final int DURATION_SECONDS = Integer.getInteger("load.duration", 60);
+    // Lot to bid on; 0 sends "/bid <amount>", which needs a single open lot
+    static final int LOT = Integer.getInteger("load.lot", 0);
+    // Average pause between two bids of one bidder, and during a storm
+    static final int BID_INTERVAL_MILLIS = Integer.getInteger("load.bidInterval", 2000);
+    static final int STORM_INTERVAL_MILLIS = Integer.getInteger("load.stormInterval", 100);
+    // How long before the lot closes the storm starts
+    static final int STORM_SECONDS = Integer.getInteger("load.stormSeconds", 5);
+    static final int CHAT_INTERVAL_MILLIS = Integer.getInteger("load.chatInterval", 5000);
+    static final int REPORT_SECONDS = Integer.getInteger("load.report", 5);
+    static final boolean WATCH = Boolean.getBoolean("load.watch");
+
+    // --- Shared results ---
+
+    static final LatencyHistogram bidRoundTrip = new LatencyHistogram();
+    static final LatencyHistogram broadcastLag = new LatencyHistogram();
+    static final LongAdder connected = new LongAdder();
+    static final LongAdder bidsSent = new LongAdder();
+    static final LongAdder bidsAccepted = new LongAdder();
+    static final LongAdder bidsRejected = new LongAdder();
+    static final LongAdder chatsSent = new LongAdder();
+    static final LongAdder framesReceived = new LongAdder();
+    static final LongAdder failures = new LongAdder();
+
+    // --- What the bidders have learned about the auction ---
+
+    // The lowest amount (in cents) worth bidding, learned from replies
+    static final AtomicLong minimumBid = new AtomicLong();
+    // When the target lot is expected to close, in System.nanoTime() terms
+    static volatile long closesAt = Long.MAX_VALUE;
+    // When each bid still in play was sent, by bidder, lot and amount, so
+    // each client can measure how long the broadcast of the accepted ones
+    // took to reach it. A bid is dropped once rejected, an accepted one
+    // after a report interval, by when every client has heard of it or
+    // is too far behind to matter.
+    static final Map<SentBid, Long> bidSentAt = new ConcurrentHashMap<>();
+
+    record SentBid(String bidder, int lot, long cents) {
+    }
+
+    private static volatile boolean running = true;
+
+    public static void main(String args[]) throws InterruptedException {
+        int users = BIDDERS + CHATTERS + LURKERS;
+        if (WATCH && LOT == 0) {
+            System.err.println("load.watch needs a load.lot to watch");
+            return;
+        }
+        System.out.printf("Load: %d bidders, %d chatters, %d lurkers against %s:%d for %ds%n",
+            BIDDERS, CHATTERS, LURKERS, HOST, PORT, DURATION_SECONDS);
+
+        long started = System.nanoTime();
+        long rampNanos = TimeUnit.SECONDS.toNanos(RAMP_UP_SECONDS);
+        Thread reporter = Thread.ofPlatform().daemon().start(() -> report(started));
+        for (int i = 0; i < users; i++) {
+            Role role = (i < BIDDERS) ? Role.BIDDER
+                : (i < BIDDERS + CHATTERS) ? Role.CHATTER : Role.LURKER;
+            int id = i;
+            Thread.ofVirtual().start(() -> new SimulatedUser(role, "load" + id).run());
+            // Spread the connections evenly over the ramp-up
+            long due = started + rampNanos * (i + 1) / users;
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+        }
+
+        long end = started + TimeUnit.SECONDS.toNanos(DURATION_SECONDS);
+        long wait;
+        while ((wait = end - System.nanoTime()) > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+        running = false;
+        reporter.interrupt();
+        System.out.println("--- Final ---");
+        printReport((System.nanoTime() - started) / 1e9);
+        System.exit(0);
+    }
+
+    private static void report(long started) {
+        try {
+            while (running) {
+                Thread.sleep(REPORT_SECONDS * 1000L);
+                long now = System.nanoTime();
+                printReport((now - started) / 1e9);
+                long keep = TimeUnit.SECONDS.toNanos(REPORT_SECONDS);
+                bidSentAt.values().removeIf(sentAt -> now - sentAt > keep);
+            }
+        } catch (InterruptedException e) {
+            // Finished
+        }
+    }
+
+    private static void printReport(double elapsed) {
+        System.out.printf("[%5.1fs] connected=%d failures=%d frames/s=%.0f%n",
+            elapsed, connected.sum(), failures.sum(), framesReceived.sum() / elapsed);
+        System.out.printf("  bids sent=%d (%.0f/s) accepted=%d rejected=%d chats=%d%n",
+            bidsSent.sum(), bidsSent.sum() / elapsed, bidsAccepted.sum(), bidsRejected.sum(), chatsSent.sum());
+        System.out.println("  bid round trip: " + bidRoundTrip.summary("us"));
+        System.out.println("  broadcast lag:  " + broadcastLag.summary("us"));
+    }
+
+    enum Role {
+        BIDDER,
+        CHATTER,
+        LURKER
+    }
+
+    /**
+     * One simulated user: a reader thread that measures what arrives, and
+     * the calling thread sending according to its role.
+     */
+    static final class SimulatedUser {
+        private final Role role;
+        private final String nickname;
+        // Send times of bids still waiting for their reply, oldest first.
+        // The server answers each bid with exactly one "[Bid]" message, a tag
+        // chat cannot start with, in the order the bids were sent, and never
+        // drops a private reply.
+        private final ArrayDeque<PendingBid> pendingBids = new ArrayDeque<>();
+
+        private record PendingBid(long sentAt, long amount) {
+        }
+
+        SimulatedUser(Role role, String nickname) {
+            this.role = role;
+            this.nickname = nickname;
+        }
+
+        void run() {
+            try (
+                Socket s = new Socket(HOST, PORT);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+            ) {
+                connected.increment();
+                if (WATCH && role != Role.CHATTER) {
+                    send(out, "/mute chat");
+                }
+                Thread reader = Thread.ofVirtual().start(() -> receive(in, out));
+                switch (role) {
+                    case BIDDER:
+                        bid(out);
+                        break;
+                    case CHATTER:
+                        chat(out);
+                        break;
+                    case LURKER:
+                        reader.join();
+                        break;
+                }
+            } catch (IOException e) {
+                failures.increment();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                connected.decrement();
+            }
+        }
+
+        private void bid(DataOutputStream out) throws IOException, InterruptedException {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            while (running) {
+                long remaining = closesAt - System.nanoTime();
+                boolean storm = remaining > 0 && remaining < TimeUnit.SECONDS.toNanos(STORM_SECONDS);
+                int interval = storm ? STORM_INTERVAL_MILLIS : BID_INTERVAL_MILLIS;
+                Thread.sleep(random.nextInt(interval * 2 + 1)); // Averages interval
+
+                long amount = minimumBid.get() + random.nextInt(3) * 100;
+                String bid = (LOT == 0) ? "/bid " + formatCents(amount) : "/bid " + LOT + " " + formatCents(amount);
+                long now = System.nanoTime();
+                synchronized (pendingBids) {
+                    pendingBids.addLast(new PendingBid(now, amount));
+                }
+                bidSentAt.put(new SentBid(nickname, LOT, amount), now);
+                send(out, bid);
+                bidsSent.increment();
+            }
+        }
+
+        private void chat(DataOutputStream out) throws IOException, InterruptedException {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            while (running) {
+                Thread.sleep(random.nextInt(CHAT_INTERVAL_MILLIS * 2 + 1));
+                send(out, "hello from " + nickname);
+                chatsSent.increment();
+            }
+        }
+
+        /**
+         * Sends one line. The reader thread sends too, to watch the lot.
+         */
+        private void send(DataOutputStream out, String message) throws IOException {
+            synchronized (out) {
+                out.writeUTF(nickname + ": " + message);
+                out.flush();
+            }
+        }
+
+        // Whether "/watch" has been sent for the lot
+        private boolean watching;
+
+        private void receive(DataInputStream in, DataOutputStream out) {
+            try {
+                while (running) {
+                    String message = in.readUTF();
+                    long now = System.nanoTime();
+                    framesReceived.increment();
+                    if (message.startsWith("[Bid] ")) {
+                        onBidReply(message, now);
+                    } else if (message.startsWith("--- NEW HIGH BID: ")) {
+                        onHighBid(message, now);
+                    } else if (message.startsWith(">>> AUCTION OPEN for ")) {
+                        onLotOpen(message);
+                    } else if (message.startsWith("You have ") && message.endsWith(" seconds to bid.")) {
+                        onBiddingTime(message, now);
+                    } else if (WATCH && !watching && message.startsWith("Item #" + LOT + ":")) {
+                        // The lot is up (or announced): from now on only follow it
+                        watching = true;
+                        send(out, "/watch " + LOT);
+                    }
+                }
+            } catch (IOException e) {
+                if (running) {
+                    failures.increment();
+                }
+            }
+        }
+
+        private void onBidReply(String message, long now) {
+            PendingBid bid;
+            synchronized (pendingBids) {
+                bid = pendingBids.pollFirst();
+            }
+            if (bid == null) {
+                return; // Not a reply to one of our bids
+            }
+            bidRoundTrip.record(TimeUnit.NANOSECONDS.toMicros(now - bid.sentAt));
+            if (message.startsWith("[Bid] Accepted: $")) {
+                bidsAccepted.increment();
+                // Whoever bids next has to beat this
+                long amount = parseCents(message, "[Bid] Accepted: $".length());
+                minimumBid.accumulateAndGet(amount + 1, Math::max);
+            } else {
+                bidsRejected.increment();
+                // Never announced, so nobody looks it up
+                bidSentAt.remove(new SentBid(nickname, LOT, bid.amount));
+                int at = message.indexOf("Minimum bid is $");
+                if (at >= 0) {
+                    long minimum = parseCents(message, at + "Minimum bid is $".length());
+                    minimumBid.accumulateAndGet(minimum, Math::max);
+                }
+            }
+        }
+
+        private void onHighBid(String message, long now) {
+            // "--- NEW HIGH BID: <nick> bids $<amount> for '<item>' (lot <id>) ---"
+            int amountAt = message.indexOf(" bids $");
+            int lotAt = message.lastIndexOf("(lot ");
+            if (amountAt < 0 || lotAt < 0) {
+                return;
+            }
+            String bidder = message.substring("--- NEW HIGH BID: ".length(), amountAt);
+            long amount = parseCents(message, amountAt + " bids $".length());
+            int lot = parseInt(message, lotAt + "(lot ".length());
+            Long sentAt = bidSentAt.get(new SentBid(bidder, (LOT == 0) ? 0 : lot, amount));
+            if (sentAt != null) {
+                broadcastLag.record(TimeUnit.NANOSECONDS.toMicros(now - sentAt));
+            }
+        }
+
+        // The lot named by the last "AUCTION OPEN" line; "You have N seconds"
+        // follows it directly
+        private int lastOpenedLot;
+
+        private void onLotOpen(String message) {
+            int lotAt = message.lastIndexOf("(lot ");
+            lastOpenedLot = (lotAt < 0) ? 0 : parseInt(message, lotAt + "(lot ".length());
+        }
+
+        private void onBiddingTime(String message, long now) {
+            if (LOT != 0 && lastOpenedLot != LOT) {
+                return;
+            }
+            int seconds = Integer.parseInt(message.substring("You have ".length(), message.indexOf(" seconds")));
+            closesAt = now + TimeUnit.SECONDS.toNanos(seconds);
+            // A new lot starts from its own price
+            minimumBid.set(0);
+        }
+    }
+
+    /** Reads the digits starting at from, stopping at the first other character. */
+    static int parseInt(String s, int from) {
+        int value = 0;
+        for (int i = from; i < s.length() && Character.isDigit(s.charAt(i)); i++) {
+            value = value * 10 + (s.charAt(i) - '0');
+        }
+        return value;
+    }
+
+    /** Reads an amount as printed by the server, e.g. "1050.50" as 105050. */
+    static long parseCents(String s, int from) {
+        long dollars = 0;
+        int i = from;
+        while (i < s.length() && Character.isDigit(s.charAt(i))) {
+            dollars = dollars * 10 + (s.charAt(i++) - '0');
+        }
+        long cents = 0;
+        if (i + 2 < s.length() && s.charAt(i) == '.') {
+            cents = (s.charAt(i + 1) - '0') * 10 + (s.charAt(i + 2) - '0');
+        }
+        return dollars * 100 + cents;
+    }
+
+    static String formatCents(long cents) {
+        return (cents / 100) + "." + ((cents % 100 < 10) ? "0" : "") + (cents % 100);
+    }
+}
@@ -0,0 +1,190 @@
+package it.unibz.cn.client;
+
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A spectator that follows the auction on the server's datagram price
+ * feed (auction.feedAddress) instead of a connection of its own. It keeps
+ * one quiet TCP connection, with every lot unwatched and chat muted, only
+ * to catch up: when a sequence number is skipped, or starts over after a
+ * server restart, it asks with /list for the lots it knows are open.
+ * Settings are system properties, e.g.
+ * <pre>
+ *   java -Dauction.feedAddress=239.1.2.3 it.unibz.cn.server.TCPServer nio
+ *   java -Dticker.address=239.1.2.3 it.unibz.cn.client.PriceTicker
+ * </pre>
+ * Without ticker.address it listens for a feed sent to this host.
+ */
+public class PriceTicker {
+
+    static final String ADDRESS = System.getProperty("ticker.address");
+    static final int FEED_PORT = Integer.getInteger("ticker.feedPort", 7897);
+    static final String INTERFACE = System.getProperty("ticker.interface");
+    static final String HOST = System.getProperty("ticker.host", "localhost");
+    static final int PORT = Integer.getInteger("ticker.port", 7896);
+    // Percentage of datagrams to ignore, to try out catching up
+    static final int DROP_PERCENT = Integer.getInteger("ticker.drop", 0);
+
+    // Tick types (see the server's PriceFeed)
+    static final byte OPEN = 1;
+    static final byte HIGH_BID = 2;
+    static final byte CLOSED = 3;
+    static final byte HEARTBEAT = 4;
+
+    // Lots seen opening and not closing yet
+    static final Set<Integer> openLots = new ConcurrentSkipListSet<>();
+    // Lot statuses asked for and not answered yet
+    static final AtomicInteger asking = new AtomicInteger();
+
+    public static void main(String args[]) {
+        try (
+            DatagramChannel feed = join();
+            Socket s = new Socket(HOST, PORT);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+        ) {
+            // The feed brings the news; TCP only answers our questions
+            send(out, "/unwatch all");
+            send(out, "/mute chat");
+            Thread.ofVirtual().start(() -> printReplies(in));
+            System.out.println("Following the price feed on port " + FEED_PORT
+                + ((ADDRESS != null) ? " (" + ADDRESS + ")" : ""));
+
+            ByteBuffer datagram = ByteBuffer.allocate(2048);
+            long last = 0; // Sequence of the last tick seen, 0 for none yet
+            long missed = 0;
+            while (true) {
+                feed.receive(datagram.clear());
+                if (DROP_PERCENT > 0 && ThreadLocalRandom.current().nextInt(100) < DROP_PERCENT) {
+                    continue;
+                }
+                datagram.flip();
+                long sequence = datagram.getLong();
+                byte type = datagram.get();
+                int lot = datagram.getInt();
+                long amount = datagram.getLong();
+                String text = StandardCharsets.UTF_8.decode(datagram).toString();
+
+                // A heartbeat repeats the last sequence; a tick is the next one
+                long expected = (type == HEARTBEAT) ? last : last + 1;
+                if (last != 0 && sequence != expected) {
+                    if (sequence > expected) {
+                        missed += sequence - expected;
+                        System.out.printf("(missed %d ticks, %d in all; catching up)%n", sequence - expected, missed);
+                    } else {
+                        System.out.println("(the feed started over; catching up)");
+                    }
+                    if (type != HEARTBEAT) {
+                        openLots.add(lot);
+                    }
+                    catchUp(out);
+                }
+                if (type != HEARTBEAT || last == 0) {
+                    last = sequence;
+                }
+                print(type, lot, amount, text);
+            }
+        } catch (IOException e) {
+            System.err.println("IO: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Opens the feed: binds its port and, for a multicast group, joins it.
+     */
+    private static DatagramChannel join() throws IOException {
+        DatagramChannel feed = DatagramChannel.open(StandardProtocolFamily.INET)
+            .setOption(StandardSocketOptions.SO_REUSEADDR, true)
+            .bind(new InetSocketAddress(FEED_PORT));
+        if (ADDRESS != null) {
+            InetAddress group = InetAddress.getByName(ADDRESS);
+            if (group.isMulticastAddress()) {
+                NetworkInterface nif = (INTERFACE != null)
+                    ? NetworkInterface.getByName(INTERFACE)
+                    : NetworkInterface.networkInterfaces()
+                        .filter(PriceTicker::multicastCapable)
+                        .findFirst()
+                        .orElseThrow(() -> new IOException("no interface for multicast; set ticker.interface"));
+                feed.join(group, nif);
+            }
+        }
+        return feed;
+    }
+
+    private static boolean multicastCapable(NetworkInterface nif) {
+        try {
+            return nif.isUp() && nif.supportsMulticast();
+        } catch (SocketException e) {
+            return false;
+        }
+    }
+
+    private static void print(byte type, int lot, long amount, String text) {
+        switch (type) {
+            case OPEN:
+                openLots.add(lot);
+                System.out.printf("Lot %d open: %s from $%s%n", lot, text, LoadGenerator.formatCents(amount));
+                break;
+            case HIGH_BID:
+                openLots.add(lot);
+                System.out.printf("Lot %d: $%s by %s%n", lot, LoadGenerator.formatCents(amount), text);
+                break;
+            case CLOSED:
+                openLots.remove(lot);
+                System.out.println(text.isEmpty()
+                    ? "Lot " + lot + " closed unsold"
+                    : "Lot " + lot + " sold to " + text + " for $" + LoadGenerator.formatCents(amount));
+                break;
+            default:
+                break; // Heartbeats, and types newer than this ticker
+        }
+    }
+
+    /**
+     * Asks for the status of every lot believed open; the answers are
+     * printed as they come.
+     */
+    private static void catchUp(DataOutputStream out) throws IOException {
+        if (openLots.isEmpty()) {
+            return;
+        }
+        for (int lot : openLots) {
+            asking.incrementAndGet();
+            out.writeUTF("ticker: /list " + lot);
+        }
+        out.flush();
+    }
+
+    private static void printReplies(DataInputStream in) {
+        try {
+            while (true) {
+                String message = in.readUTF();
+                boolean status = message.startsWith("Current Bid:") || message.startsWith("No bids yet")
+                    || message.endsWith("is not up for auction.");
+                // The welcome message has a status too; only print answers
+                if (status && asking.getAndUpdate(n -> Math.max(n - 1, 0)) > 0) {
+                    System.out.println("  (now) " + message);
+                }
+                // Closed lots drop out of what we catch up on
+                if (message.endsWith("is not up for auction.")) {
+                    openLots.remove(Integer.parseInt(message.substring("Lot ".length(), message.indexOf(' ', 4))));
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Lost the connection to the auction server: " + e.getMessage());
+        }
+    }
+
+    private static void send(DataOutputStream out, String message) throws IOException {
+        out.writeUTF("ticker: " + message);
+        out.flush();
+    }
+}
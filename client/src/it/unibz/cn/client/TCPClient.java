@@ -13,10 +13,24 @@ public class TCPClient {
     // signal the receiver thread to stop
     private static volatile boolean serverReciverRunning = true;
 
+    // opcodes of the server's binary protocol (see the server's BinaryProtocol)
+    static final byte OP_BID = 1;
+    static final byte OP_LIST = 2;
+    static final byte OP_CHAT = 3;
+    static final byte OP_HELP = 4;
+    static final byte OP_QUIT = 5;
+    static final byte OP_WATCH = 6;
+    static final byte OP_UNWATCH = 7;
+    static final byte OP_MUTE = 8;
+    static final byte OP_UNMUTE = 9;
+    static final int CHANNEL_CHAT = 1;
+
     public static void main(String args[]) {
         String nickname = null;
         String host = (args.length >= 2) ? args[1] : "localhost";
         int serverPort = (args.length >= 3) ? Integer.parseInt(args[2]) : 7896;
+        // "binary" switches to the compact binary protocol after login
+        boolean binary = (args.length >= 4) && args[3].equals("binary");
 
         try (
                 Socket s = new Socket(host, serverPort);
@@ -25,6 +39,10 @@ public class TCPClient {
             // get nickname
             nickname = getNickname();
 
+            // log in to the binary protocol before the receiver thread takes
+            // over the input stream
+            int sessionId = binary ? startBinarySession(nickname, in, out) : 0;
+
             // start tread to print messages from server
             Thread receiverThread = new Thread(() -> {
                 try {
@@ -51,9 +69,12 @@ public class TCPClient {
                     break;
                 }
 
-                message = nickname + ": " + message;
-
-                out.writeUTF(message);
+                if (binary) {
+                    sendBinary(sessionId, message, out);
+                } else {
+                    message = nickname + ": " + message;
+                    out.writeUTF(message);
+                }
                 out.flush();
 
             }
@@ -74,6 +95,88 @@ public class TCPClient {
         }
     }
 
+    /**
+     * Asks the server to switch to binary frames and waits for the session
+     * id it assigns, printing whatever the server sends in the meantime.
+     */
+    static int startBinarySession(String nickname, DataInputStream in, DataOutputStream out) throws IOException {
+        out.writeUTF(nickname + ": /binary");
+        out.flush();
+        while (true) {
+            String message = in.readUTF();
+            if (message.startsWith("[Proto] binary ")) {
+                return Integer.parseInt(message.substring("[Proto] binary ".length()));
+            }
+            System.out.println("[Auction Server]: " + message);
+        }
+    }
+
+    /**
+     * Encodes one line typed by the user as a binary frame. Lines that are
+     * not a valid command are sent as chat, as in text mode.
+     */
+    static void sendBinary(int sessionId, String message, DataOutputStream out) throws IOException {
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        String[] parts = message.trim().split(" ");
+        try {
+            if (parts[0].equals("/bid") && (parts.length == 2 || parts.length == 3)) {
+                int lotId = (parts.length == 3) ? Integer.parseInt(parts[1]) : 0; // 0: the only open lot
+                long cents = Math.round(Double.parseDouble(parts[parts.length - 1]) * 100);
+                frame.write(OP_BID);
+                writeVarLong(frame, sessionId);
+                writeVarLong(frame, lotId);
+                writeVarLong(frame, cents);
+            } else if (parts[0].equals("/list") && parts.length <= 2) {
+                frame.write(OP_LIST);
+                writeVarLong(frame, sessionId);
+                writeVarLong(frame, (parts.length == 2) ? Integer.parseInt(parts[1]) : 0);
+            } else if ((parts[0].equals("/watch") || parts[0].equals("/unwatch")) && parts.length == 2) {
+                frame.write(parts[0].equals("/watch") ? OP_WATCH : OP_UNWATCH);
+                writeVarLong(frame, sessionId);
+                writeVarLong(frame, parts[1].equals("all") ? 0 : Integer.parseInt(parts[1])); // 0: every lot
+            } else if ((parts[0].equals("/mute") || parts[0].equals("/unmute")) && parts.length == 2
+                    && parts[1].equals("chat")) {
+                frame.write(parts[0].equals("/mute") ? OP_MUTE : OP_UNMUTE);
+                writeVarLong(frame, sessionId);
+                writeVarLong(frame, CHANNEL_CHAT);
+            } else if (message.equals("/help")) {
+                frame.write(OP_HELP);
+                writeVarLong(frame, sessionId);
+            } else if (message.equals("/quit")) {
+                frame.write(OP_QUIT);
+                writeVarLong(frame, sessionId);
+            } else {
+                frame = chatFrame(sessionId, message);
+            }
+        } catch (NumberFormatException e) {
+            frame = chatFrame(sessionId, message);
+        }
+        out.writeShort(frame.size());
+        frame.writeTo(out);
+    }
+
+    private static ByteArrayOutputStream chatFrame(int sessionId, String message) throws IOException {
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        frame.write(OP_CHAT);
+        writeVarLong(frame, sessionId);
+        // writeUTF's encoding without its length prefix: the frame has one
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        new DataOutputStream(text).writeUTF(message);
+        frame.write(text.toByteArray(), 2, text.size() - 2);
+        return frame;
+    }
+
+    /**
+     * Writes an unsigned LEB128 varint: 7 bits per byte, low bits first.
+     */
+    static void writeVarLong(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
     static String getNickname() {
         String nickname = null;
 
@@ -0,0 +1,203 @@
+package it.unibz.cn.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Drives the auction: takes each item through preview, bidding and close.
+ * Every phase change is an event on a {@link TimerWheel}, so any number of
+ * lots can run at once on a single timer thread, and a lot's close can be
+ * pushed back when a late bid comes in.
+ */
+final class Auctioneer {
+
+    private final TimerWheel timers = new TimerWheel(
+        "auctioneer", ServerConfig.TIMER_TICK_MILLIS, TimeUnit.MILLISECONDS, 512
+    );
+    private final Catalogue catalogue;
+    // Lots that can run at the same time and still have work to do
+    private final AtomicInteger activeSlots = new AtomicInteger(ServerConfig.PARALLEL_LOTS);
+
+    Auctioneer(Catalogue catalogue) {
+        this.catalogue = catalogue;
+    }
+
+    /**
+     * Starts the auction after the startup delay. Lots that were open when
+     * the server stopped, or when the primary it stood by for was lost,
+     * carry on at once with the time they had left.
+     */
+    void start() {
+        List<Item> waiting = new ArrayList<>();
+        for (int i = 0; i < ServerConfig.PARALLEL_LOTS; i++) {
+            Item item = catalogue.next();
+            long closesAt = (item == null) ? 0 : catalogue.resumeUntil(item);
+            if (closesAt != 0) {
+                resume(item, closesAt);
+            } else {
+                waiting.add(item); // Null ends the slot's run
+            }
+        }
+        if (waiting.isEmpty()) {
+            return;
+        }
+        // Wait on startup for people to join
+        Log.info("Auctioneer started. Waiting {}s for clients...", ServerConfig.START_DELAY_SECONDS);
+        timers.schedule(() -> {
+            for (Item item : waiting) {
+                present(item);
+            }
+        }, ServerConfig.START_DELAY_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Puts the next unsold item up for preview, or ends this slot's run.
+     */
+    private void startNextLot() {
+        // Only now is the lot read from the catalogue
+        present(catalogue.next());
+    }
+
+    private void present(Item item) {
+        if (item == null) {
+            if (activeSlots.decrementAndGet() == 0) {
+                TCPServer.broadcast("--- THE AUCTION IS NOW OVER ---");
+                TCPServer.broadcast("Thank you for participating!");
+                Log.info("Auctioneer finished.");
+                // Server will continue running, but no new items will be up.
+            }
+            return;
+        }
+
+        // Make the item live and announce it to everyone, so they can
+        // decide whether to watch it
+        TCPServer.liveLots.put(item.lotId, item);
+        Authority.lotLive(item);
+        TCPServer.broadcast("--- NEW ITEM FOR AUCTION ---");
+        TCPServer.broadcast(item.toString());
+        TCPServer.broadcast("Bidding starts in " + ServerConfig.PREVIEW_SECONDS
+            + " seconds. Type /bid " + item.lotId + " <amount>");
+        timers.schedule(() -> open(item), ServerConfig.PREVIEW_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private void open(Item item) {
+        long biddingNanos = TimeUnit.SECONDS.toNanos(ServerConfig.BIDDING_SECONDS);
+        item.closeDeadline.set(System.nanoTime() + biddingNanos);
+        TCPServer.journal.lotOpened(item, item.closesAt());
+        startBidding(item, biddingNanos);
+    }
+
+    /**
+     * Makes a recovered lot live again and open for bidding until closesAt
+     * (epoch millis), without a preview. A deadline that passed while no
+     * server was running closes the lot right away.
+     */
+    private void resume(Item item, long closesAt) {
+        long remaining = TimeUnit.MILLISECONDS.toNanos(Math.max(closesAt - System.currentTimeMillis(), 0));
+        Log.info("Resuming lot {} with {} s to go", item.lotId, TimeUnit.NANOSECONDS.toSeconds(remaining));
+        TCPServer.liveLots.put(item.lotId, item);
+        Authority.lotLive(item);
+        // At least one tick, so the deadline is never 0, which means closed
+        item.closeDeadline.set(System.nanoTime() + Math.max(remaining, 1));
+        startBidding(item, remaining);
+    }
+
+    private void startBidding(Item item, long biddingNanos) {
+        TCPServer.broadcast(item.lotId, ">>> AUCTION OPEN for '" + item.description + "' (lot " + item.lotId + ")! <<<");
+        TCPServer.broadcast(item.lotId, "You have " + TimeUnit.NANOSECONDS.toSeconds(biddingNanos) + " seconds to bid.");
+        PriceFeed.lotOpen(item);
+        timers.schedule(() -> close(item), biddingNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void close(Item item) {
+        // Late bids may have pushed the deadline back since this was scheduled
+        while (true) {
+            long deadline = item.closeDeadline.get();
+            long remaining = deadline - System.nanoTime();
+            if (remaining > 0) {
+                timers.schedule(() -> close(item), remaining, TimeUnit.NANOSECONDS);
+                return;
+            }
+            // Clearing the deadline stops any further extension
+            if (item.closeDeadline.compareAndSet(deadline, 0)) {
+                break;
+            }
+        }
+
+        // Close bidding for this item. Bids that lose the race
+        // against the close are rejected by Item.tryBid.
+        item.close();
+        settle(item);
+    }
+
+    /**
+     * Waits, a tick at a time, until the journal has saved every bid the
+     * lot took before it closed, then announces the result. Once the
+     * journal has failed, unsaved bids are taken back instead, so the lot
+     * is never sold to a bid a restart would lose.
+     */
+    private void settle(Item item) {
+        if (item.state().sequence > item.savedState().sequence) {
+            if (!TCPServer.journal.failed()) {
+                timers.schedule(() -> settle(item), ServerConfig.TIMER_TICK_MILLIS, TimeUnit.MILLISECONDS);
+                return;
+            }
+            item.rollBack();
+        }
+
+        BidState result = item.state();
+        Authority.lotState(item.lotId, result);
+        // The final price comes before the result even if its announcement
+        // was being held back
+        TCPServer.announceFinalBid(item);
+        TCPServer.journal.lotClosed(item);
+        // From here on only the result is kept, not the Item
+        catalogue.finished(item, result);
+        TCPServer.liveLots.remove(item.lotId);
+        TCPServer.broadcast(item.lotId, ">>> AUCTION CLOSED for '" + item.description + "' (lot " + item.lotId + ")! <<<");
+        
+        if (result.hasBids()) {
+            TCPServer.broadcast(item.lotId, String.format(
+                "SOLD to %s for $%s",
+                result.bidder, Money.format(result.amount)
+            ));
+        } else {
+            TCPServer.broadcast(item.lotId, "Item was not sold (no bids).");
+        }
+        PriceFeed.lotClosed(item.lotId, result);
+        
+        TCPServer.broadcast(item.lotId, "Next item in " + ServerConfig.PAUSE_SECONDS + " seconds...");
+        Subscriptions.lotFinished(item.lotId);
+        Authority.lotDone(item.lotId);
+        timers.schedule(this::startNextLot, ServerConfig.PAUSE_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Anti-sniping: if a bid lands in the last seconds of a lot, pushes the
+     * close back so others get a chance to answer it. Called after every
+     * accepted bid; lock-free, the close timer picks up the new deadline.
+     */
+    static void extendIfLate(Item item) {
+        if (ServerConfig.EXTEND_WINDOW_SECONDS <= 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        long window = TimeUnit.SECONDS.toNanos(ServerConfig.EXTEND_WINDOW_SECONDS);
+        long extended = now + TimeUnit.SECONDS.toNanos(ServerConfig.EXTEND_BY_SECONDS);
+        while (true) {
+            long deadline = item.closeDeadline.get();
+            // Not open yet, already closing, or not late enough
+            if (deadline == 0 || deadline - now > window || extended - deadline <= 0) {
+                return;
+            }
+            if (item.closeDeadline.compareAndSet(deadline, extended)) {
+                TCPServer.journal.lotOpened(item, item.closesAt());
+                TCPServer.broadcast(item.lotId, "Late bid on lot " + item.lotId + "! Bidding extended, "
+                    + ServerConfig.EXTEND_BY_SECONDS + " seconds left.");
+                return;
+            }
+        }
+    }
+}
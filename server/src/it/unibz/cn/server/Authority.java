@@ -0,0 +1,176 @@
+package it.unibz.cn.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The authority side of a split deployment: the node that owns the
+ * auction and runs the {@link Auctioneer}, with {@link Gateway} nodes in
+ * front of it holding the client connections. Gateways connect to
+ * auction.linkPort; each gets a copy of the live lots, then every change to
+ * them and every broadcast, and sends in its clients' bids and chat.
+ * <p>
+ * Without gateways the hooks below cost a check of an empty set.
+ */
+final class Authority {
+
+    private Authority() {
+    }
+
+    private static final Set<NodeLink> gateways = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Accepts gateways on port, on a background thread.
+     */
+    static void listen(int port) {
+        Thread.ofPlatform().name("gateway-acceptor").daemon().start(() -> {
+            try (ServerSocketChannel listenChannel = ServerSocketChannel.open()) {
+                listenChannel.bind(new InetSocketAddress(port));
+                Log.info("Accepting gateways on port {}", port);
+                while (true) {
+                    SocketChannel channel = listenChannel.accept();
+                    Thread.ofVirtual().start(() -> serve(channel));
+                }
+            } catch (IOException e) {
+                Log.error("Gateway link error: {}", e.getMessage());
+            }
+        });
+    }
+
+    private static void serve(SocketChannel channel) {
+        NodeLink link;
+        try {
+            link = new NodeLink(channel);
+        } catch (IOException e) {
+            Log.warn("Gateway link: {}", e.getMessage());
+            return;
+        }
+        // Lots going live or finishing wait for the copy, so the gateway
+        // sees each of them either in it or as a change after it. Bid
+        // states are sent without the lock, so the gateway is registered
+        // first: a state that changes meanwhile reaches it as a change, or
+        // in the copy, which reads it afterwards. The gateway keeps
+        // whichever is newest.
+        synchronized (gateways) {
+            gateways.add(link);
+            for (Item item : TCPServer.liveLots.values()) {
+                link.send(LinkProtocol.lotLive(item));
+                link.send(LinkProtocol.lotState(item.lotId, item.savedState()));
+            }
+        }
+        Log.info("Gateway {} connected", link);
+        link.run(message -> handle(message, link));
+        gateways.remove(link);
+    }
+
+    private static void handle(ByteBuffer message, NodeLink link) {
+        byte opcode = message.get();
+        switch (opcode) {
+            case LinkProtocol.BID: {
+                long request = BinaryProtocol.readVarLong(message);
+                int lotId = BinaryProtocol.readVarInt(message);
+                long amount = BinaryProtocol.readVarLong(message);
+                String bidder = LinkProtocol.readString(message);
+                RemoteBidder client = new RemoteBidder(link, request);
+                if (lotId == 0) {
+                    TCPServer.placeBid(bidder, amount, client);
+                } else {
+                    TCPServer.placeBid(bidder, lotId, amount, client);
+                }
+                break;
+            }
+            case LinkProtocol.CHAT:
+                TCPServer.broadcastChat(LinkProtocol.readString(message));
+                break;
+            default:
+                throw new IllegalArgumentException("unknown opcode " + opcode);
+        }
+    }
+
+    /**
+     * Stands in for a gateway's client while its bid is placed: the replies
+     * go back over the link, tagged with the gateway's request number.
+     */
+    private static final class RemoteBidder extends Client {
+        private final NodeLink link;
+        private final long request;
+        private int acceptedLot;
+
+        RemoteBidder(NodeLink link, long request) {
+            this.link = link;
+            this.request = request;
+        }
+
+        void send(Frame frame) {
+            link.send(LinkProtocol.reply(request, acceptedLot, frame));
+        }
+
+        int queuedMessages() {
+            return 0;
+        }
+
+        @Override
+        void bidAccepted(int lotId) {
+            // The gateway does the watching
+            acceptedLot = lotId;
+        }
+    }
+
+    // --- Changes passed on to the gateways ---
+
+    static void lotLive(Item item) {
+        if (gateways.isEmpty()) {
+            return;
+        }
+        Frame live = LinkProtocol.lotLive(item);
+        Frame state = LinkProtocol.lotState(item.lotId, item.savedState());
+        synchronized (gateways) {
+            for (NodeLink link : gateways) {
+                link.send(live);
+                link.send(state);
+            }
+        }
+    }
+
+    /**
+     * A lot's bidding state changed. Gateways keep the newest state they
+     * have seen, so these need not arrive in order.
+     */
+    static void lotState(int lotId, BidState state) {
+        if (gateways.isEmpty()) {
+            return;
+        }
+        sendAll(LinkProtocol.lotState(lotId, state));
+    }
+
+    static void lotDone(int lotId) {
+        if (gateways.isEmpty()) {
+            return;
+        }
+        synchronized (gateways) {
+            sendAll(LinkProtocol.lotDone(lotId));
+        }
+    }
+
+    /**
+     * Relays an encoded broadcast for the gateways to fan out to their own
+     * clients.
+     */
+    static void publish(byte topic, int lotId, Frame frame) {
+        if (gateways.isEmpty()) {
+            return;
+        }
+        sendAll(LinkProtocol.publish(topic, lotId, frame));
+    }
+
+    private static void sendAll(Frame message) {
+        for (NodeLink link : gateways) {
+            link.send(message);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package it.unibz.cn.server;
+
+/**
+ * The outcome of {@link Item#tryBid}: whether the bid was accepted and the
+ * snapshot it was decided against.
+ */
+final class BidResult {
+
+    enum Outcome {
+        ACCEPTED,
+        TOO_LOW,
+        CLOSED
+    }
+
+    final Outcome outcome;
+    // The new state if accepted, otherwise the state that beat the bid
+    final BidState state;
+    // The smallest bid that would have been accepted against that state
+    final long minimumBid; // In cents
+
+    BidResult(Outcome outcome, BidState state, long minimumBid) {
+        this.outcome = outcome;
+        this.state = state;
+        this.minimumBid = minimumBid;
+    }
+}
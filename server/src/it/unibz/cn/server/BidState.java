@@ -0,0 +1,28 @@
+package it.unibz.cn.server;
+
+/**
+ * An immutable snapshot of an {@link Item}'s bidding state. The item swaps
+ * whole snapshots with compare-and-set, so the amount, the bidder and the
+ * sequence number are always read and written together.
+ */
+final class BidState {
+
+    // The state of an item nobody has bid on yet
+    static final BidState INITIAL = new BidState(0, null, 0, false);
+
+    final long amount; // In cents
+    final String bidder; // Nickname of the highest bidder, null if no bids
+    final long sequence; // Grows with every accepted bid (and taken-back one)
+    final boolean closed; // No more bids are accepted once set
+
+    BidState(long amount, String bidder, long sequence, boolean closed) {
+        this.amount = amount;
+        this.bidder = bidder;
+        this.sequence = sequence;
+        this.closed = closed;
+    }
+
+    boolean hasBids() {
+        return bidder != null;
+    }
+}
@@ -0,0 +1,80 @@
+package it.unibz.cn.server;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The compact client-to-server protocol a client can switch to by sending
+ * "nickname: /binary". The server answers "[Proto] binary <session>" and
+ * from then on the client's frames, still behind the usual two byte length
+ * prefix, hold:
+ * <pre>
+ *   opcode (1 byte) | session id (varint) | arguments
+ *   BID   lot (varint, 0 = the only open lot) | amount in cents (varint)
+ *   LIST  lot (varint, 0 = every open lot)
+ *   CHAT  message (modified UTF-8, rest of the frame)
+ *   HELP
+ *   QUIT
+ *   WATCH    lot (varint, 0 = every lot)
+ *   UNWATCH  lot (varint, 0 = every lot)
+ *   MUTE     channel (varint, 1 = chat)
+ *   UNMUTE   channel (varint, 1 = chat)
+ * </pre>
+ * Varints are unsigned LEB128: 7 bits per byte, low bits first, high bit
+ * set on every byte but the last. Server messages stay writeUTF text.
+ * The client's copy of these constants is in TCPClient.
+ */
+final class BinaryProtocol {
+
+    static final byte BID = 1;
+    static final byte LIST = 2;
+    static final byte CHAT = 3;
+    static final byte HELP = 4;
+    static final byte QUIT = 5;
+    static final byte WATCH = 6;
+    static final byte UNWATCH = 7;
+    static final byte MUTE = 8;
+    static final byte UNMUTE = 9;
+
+    // Channels for MUTE and UNMUTE
+    static final int CHANNEL_CHAT = 1;
+
+    private BinaryProtocol() {
+    }
+
+    /**
+     * Reads a varint that must fit in an int.
+     */
+    static int readVarInt(ByteBuffer buf) {
+        long value = readVarLong(buf);
+        if (value > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("varint too large: " + value);
+        }
+        return (int) value;
+    }
+
+    /**
+     * Writes a varint; the {@link LinkProtocol} between nodes uses them too.
+     */
+    static void writeVarLong(ByteBuffer buf, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buf.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buf.put((byte) value);
+    }
+
+    /**
+     * Reads a varint of up to 63 bits.
+     */
+    static long readVarLong(ByteBuffer buf) {
+        long value = 0;
+        for (int shift = 0; shift < 63; shift += 7) {
+            byte b = buf.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("varint too long");
+    }
+}
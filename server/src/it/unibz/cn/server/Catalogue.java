@@ -0,0 +1,468 @@
+package it.unibz.cn.server;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * The lots to auction, in order. A catalogue file is streamed: each lot is
+ * only read and turned into an {@link Item} when the {@link Auctioneer}
+ * asks for the next one, and once it is done only its compact final
+ * {@link BidState} is kept. Memory therefore grows with the lots currently
+ * up for auction, not with the size of the catalogue.
+ * <p>
+ * Two file formats are understood, one lot per line:
+ * <pre>
+ *   lots.csv:   lot,description,startPrice,minIncrement
+ *               1,"Vintage Monet Painting",1000.00,50.00
+ *   lots.jsonl: {"lot": 1, "description": "Vintage Monet Painting",
+ *                "startPrice": "1000.00", "minIncrement": "50.00"}
+ * </pre>
+ * Prices are in dollars. A CSV header line is skipped, and other JSON
+ * fields (images, metadata) are ignored.
+ */
+final class Catalogue {
+
+    private final Iterator<Item> source;
+    private final String name;
+
+    // The snapshot loaded at startup, or null. Its lots are looked up as
+    // they come up; the maps below hold what changed since.
+    private final Snapshot snapshot;
+    // Final states of finished lots, and states recovered from the journal
+    // for lots not up yet. Read by Snapshot while the auction goes on.
+    private final Map<Integer, BidState> states;
+    // When the lots that were open before a restart close, in epoch millis
+    private final Map<Integer, Long> closingTimes;
+
+    /**
+     * Receives one lot's state from forEachLot.
+     */
+    interface LotVisitor {
+        void visit(int lotId, BidState state, long closesAt);
+    }
+
+    private Catalogue(String name, Iterator<Item> source, Snapshot snapshot, Map<Integer, BidState> recovered,
+            Map<Integer, Long> closingTimes) {
+        this.name = name;
+        this.source = source;
+        this.snapshot = snapshot;
+        this.states = new ConcurrentHashMap<>(recovered);
+        this.closingTimes = new ConcurrentHashMap<>(closingTimes);
+    }
+
+    /**
+     * A catalogue of items already in memory.
+     * @param snapshot The snapshot loaded at startup, or null
+     * @param recovered States replayed from the journal since, by lot
+     * @param closingTimes Deadlines of the lots open when the journal ended
+     */
+    static Catalogue of(List<Item> items, Snapshot snapshot, Map<Integer, BidState> recovered,
+            Map<Integer, Long> closingTimes) {
+        return new Catalogue("built-in catalogue", items.iterator(), snapshot, recovered, closingTimes);
+    }
+
+    /**
+     * A catalogue streamed from a .csv or .jsonl file.
+     * @param snapshot The snapshot loaded at startup, or null
+     * @param recovered States replayed from the journal since, by lot
+     * @param closingTimes Deadlines of the lots open when the journal ended
+     */
+    static Catalogue open(Path file, Snapshot snapshot, Map<Integer, BidState> recovered,
+            Map<Integer, Long> closingTimes) throws IOException {
+        String fileName = file.getFileName().toString();
+        Function<String, Item> parser;
+        if (fileName.endsWith(".csv")) {
+            parser = Catalogue::parseCsv;
+        } else if (fileName.endsWith(".jsonl") || fileName.endsWith(".json")) {
+            parser = Catalogue::parseJson;
+        } else {
+            throw new IOException("Unknown catalogue format: " + fileName + " (expected .csv or .jsonl)");
+        }
+        BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+        return new Catalogue(file.toString(), new LotReader(file.toString(), reader, parser), snapshot, recovered,
+            closingTimes);
+    }
+
+    /**
+     * Reads the next lot still to be auctioned. Lots that were finished
+     * before a restart are skipped; ones that were cut short get their
+     * recovered high bid back.
+     * @return the next item, or null once the catalogue is exhausted
+     */
+    synchronized Item next() {
+        while (true) {
+            Item item;
+            try {
+                if (!source.hasNext()) {
+                    return null;
+                }
+                item = source.next();
+            } catch (UncheckedIOException e) {
+                Log.error("Catalogue: {}; no more lots", e.getMessage());
+                return null;
+            }
+            BidState recovered = state(item.lotId);
+            if (recovered == null) {
+                return item;
+            }
+            if (!recovered.closed) {
+                item.restore(recovered);
+                return item;
+            }
+            // Finished before the restart
+        }
+    }
+
+    /**
+     * Keeps only the final state of a finished lot; the Item itself, with
+     * its description and whatever else is attached, can go.
+     */
+    void finished(Item item, BidState result) {
+        states.put(item.lotId, result);
+        closingTimes.remove(item.lotId);
+    }
+
+    /**
+     * What is known about a lot that is not live: its final state, or the
+     * one recovered from the snapshot and the journal since.
+     * @return null if nothing is
+     */
+    BidState state(int lotId) {
+        BidState changed = states.get(lotId);
+        int index = (snapshot == null) ? -1 : snapshot.find(lotId);
+        if (index < 0) {
+            return changed;
+        }
+        BidState loaded = snapshot.state(index);
+        return (changed == null) ? loaded : Journal.merge(loaded, changed);
+    }
+
+    /**
+     * Visits every lot that is not live and has a state or a closing time,
+     * the snapshot's included. Used to copy them all, by Snapshot and
+     * Replication; looking up a single lot is cheaper with state().
+     */
+    void forEachLot(LotVisitor visitor) {
+        Set<Integer> seen = new HashSet<>();
+        for (Integer lotId : states.keySet()) {
+            seen.add(lotId);
+            visitor.visit(lotId, state(lotId), closesAt(lotId));
+        }
+        for (Integer lotId : closingTimes.keySet()) {
+            if (seen.add(lotId)) {
+                BidState state = state(lotId);
+                visitor.visit(lotId, (state == null) ? BidState.INITIAL : state, closesAt(lotId));
+            }
+        }
+        for (int i = 0, count = (snapshot == null) ? 0 : snapshot.size(); i < count; i++) {
+            int lotId = snapshot.lotId(i);
+            if (!seen.contains(lotId)) {
+                visitor.visit(lotId, snapshot.state(i), snapshot.closesAt(i));
+            }
+        }
+    }
+
+    /**
+     * The states of lots that changed since the snapshot was loaded, by
+     * lot: those finished since and those the journal replayed. The
+     * journal records a standby receives are replayed into it.
+     */
+    Map<Integer, BidState> states() {
+        return states;
+    }
+
+    /**
+     * When each lot that was open before a restart (or on the primary a
+     * standby follows) closes, in epoch millis, by lot. Like states(),
+     * only what the journal replayed since the snapshot.
+     */
+    Map<Integer, Long> closingTimes() {
+        return closingTimes;
+    }
+
+    /**
+     * When a lot that was open before a restart closes.
+     * @return epoch millis, or 0 if the lot is to be auctioned afresh
+     */
+    long resumeUntil(Item item) {
+        return closesAt(item.lotId);
+    }
+
+    private long closesAt(int lotId) {
+        BidState state = state(lotId);
+        if (state != null && state.closed) {
+            return 0;
+        }
+        int index = (snapshot == null) ? -1 : snapshot.find(lotId);
+        long loaded = (index < 0) ? 0 : snapshot.closesAt(index);
+        // Like the journal's own replay, the latest extension wins
+        return Math.max(loaded, closingTimes.getOrDefault(lotId, 0L));
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    // --- Parsing ---
+
+    /**
+     * Streams a catalogue file a line at a time. Lines that cannot be
+     * parsed are logged and skipped.
+     */
+    private static final class LotReader implements Iterator<Item> {
+        private final String file;
+        private final BufferedReader reader;
+        private final Function<String, Item> parser;
+        private Item next;
+        private int lineNumber;
+
+        LotReader(String file, BufferedReader reader, Function<String, Item> parser) {
+            this.file = file;
+            this.reader = reader;
+            this.parser = parser;
+        }
+
+        public boolean hasNext() {
+            if (next != null) {
+                return true;
+            }
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    lineNumber++;
+                    if (line.isBlank() || (lineNumber == 1 && line.startsWith("lot,"))) {
+                        continue; // CSV header
+                    }
+                    try {
+                        next = parser.apply(line);
+                        return true;
+                    } catch (IllegalArgumentException e) {
+                        Log.warn("Catalogue: skipping {}: {}", file + ":" + lineNumber, e.getMessage());
+                    }
+                }
+                reader.close();
+                return false;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot read " + file, e);
+            }
+        }
+
+        public Item next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Item item = next;
+            next = null;
+            return item;
+        }
+    }
+
+    private static Item item(String lot, String description, String startPrice, String minIncrement) {
+        int lotId;
+        try {
+            lotId = Integer.parseInt(lot.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("bad lot number '" + lot + "'");
+        }
+        if (lotId <= 0 || description == null) {
+            throw new IllegalArgumentException("a lot needs a positive number and a description");
+        }
+        return new Item(lotId, description, price(startPrice), price(minIncrement));
+    }
+
+    private static long price(String amount) {
+        long cents = (amount == null) ? -1 : Money.parseCents(amount.trim());
+        if (cents < 0) {
+            throw new IllegalArgumentException("bad price '" + amount + "'");
+        }
+        return cents;
+    }
+
+    /**
+     * Parses "lot,description,startPrice,minIncrement". Fields may be
+     * quoted, with "" for a quote inside.
+     */
+    static Item parseCsv(String line) {
+        List<String> fields = new ArrayList<>(4);
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        if (fields.size() < 4) {
+            throw new IllegalArgumentException("expected lot,description,startPrice,minIncrement");
+        }
+        return item(fields.get(0), fields.get(1), fields.get(2), fields.get(3));
+    }
+
+    /**
+     * Parses one JSON object per line. Only the top-level "lot",
+     * "description", "startPrice" and "minIncrement" fields are read; prices
+     * may be numbers or strings.
+     */
+    static Item parseJson(String line) {
+        Map<String, String> fields = new HashMap<>();
+        JsonScanner json = new JsonScanner(line);
+        json.expect('{');
+        if (!json.tryConsume('}')) {
+            do {
+                String key = json.string();
+                json.expect(':');
+                String value = json.value();
+                fields.put(key, value);
+            } while (json.tryConsume(','));
+            json.expect('}');
+        }
+        return item(
+            String.valueOf(fields.get("lot")), fields.get("description"),
+            fields.get("startPrice"), fields.get("minIncrement")
+        );
+    }
+
+    /**
+     * Just enough of a JSON reader for flat catalogue lines: strings and
+     * scalars are returned as text, nested objects and arrays are skipped.
+     */
+    private static final class JsonScanner {
+        private final String s;
+        private int i;
+
+        JsonScanner(String s) {
+            this.s = s;
+        }
+
+        private void skipWhitespace() {
+            while (i < s.length() && Character.isWhitespace(s.charAt(i))) {
+                i++;
+            }
+        }
+
+        boolean tryConsume(char c) {
+            skipWhitespace();
+            if (i < s.length() && s.charAt(i) == c) {
+                i++;
+                return true;
+            }
+            return false;
+        }
+
+        void expect(char c) {
+            if (!tryConsume(c)) {
+                throw new IllegalArgumentException("expected '" + c + "' at column " + (i + 1));
+            }
+        }
+
+        String string() {
+            expect('"');
+            StringBuilder out = new StringBuilder();
+            while (i < s.length()) {
+                char c = s.charAt(i++);
+                if (c == '"') {
+                    return out.toString();
+                }
+                if (c != '\\') {
+                    out.append(c);
+                    continue;
+                }
+                if (i >= s.length()) {
+                    break;
+                }
+                char escaped = s.charAt(i++);
+                switch (escaped) {
+                    case 'b': out.append('\b'); break;
+                    case 'f': out.append('\f'); break;
+                    case 'n': out.append('\n'); break;
+                    case 'r': out.append('\r'); break;
+                    case 't': out.append('\t'); break;
+                    case 'u':
+                        if (i + 4 > s.length()) {
+                            throw new IllegalArgumentException("bad \\u escape");
+                        }
+                        out.append((char) Integer.parseInt(s.substring(i, i + 4), 16));
+                        i += 4;
+                        break;
+                    default: out.append(escaped); // \" \\ \/
+                }
+            }
+            throw new IllegalArgumentException("unterminated string");
+        }
+
+        /**
+         * Reads any value: a string's contents, a scalar's text, or null for
+         * a nested object or array (which is skipped).
+         */
+        String value() {
+            skipWhitespace();
+            if (i >= s.length()) {
+                throw new IllegalArgumentException("missing value");
+            }
+            char c = s.charAt(i);
+            if (c == '"') {
+                return string();
+            }
+            if (c == '{' || c == '[') {
+                skipNested();
+                return null;
+            }
+            int start = i;
+            while (i < s.length() && ",}] \t".indexOf(s.charAt(i)) < 0) {
+                i++;
+            }
+            String scalar = s.substring(start, i);
+            return scalar.equals("null") ? null : scalar;
+        }
+
+        private void skipNested() {
+            int depth = 0;
+            do {
+                char c = s.charAt(i);
+                if (c == '"') {
+                    string();
+                    continue;
+                }
+                if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    depth--;
+                }
+                i++;
+            } while (depth > 0 && i < s.length());
+            if (depth > 0) {
+                throw new IllegalArgumentException("unterminated object or array");
+            }
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package it.unibz.cn.server;
+
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * A connected bidder, independent of how its socket is driven.
+ * Both the blocking {@link Connection} and the selector-based
+ * {@link NioConnection} extend this so the command handlers and
+ * broadcasts do not need to know which server mode is running.
+ */
+abstract class Client {
+
+    // This client's id in the topic index, -1 while not connected
+    // (see Subscriptions)
+    volatile int subscriberId = -1;
+
+    // Set once the client has logged in to the binary protocol
+    private volatile Session session;
+
+    // The nickname of the last text frame and its encoded bytes. Users keep
+    // the same nickname, so each frame only compares bytes instead of
+    // building a new String. Only touched by the thread reading frames.
+    private String nickname;
+    private byte[] nicknameBytes;
+
+    // Rate limits on this client's commands, made for its first command.
+    // Only touched by the thread reading frames.
+    private Throttle throttle;
+
+    // Replies to this client's bids not sent yet, in the order the bids
+    // came in: one waiting for the journal holds back those after it
+    private final ArrayDeque<BidReply> bidReplies = new ArrayDeque<>();
+
+    /**
+     * The reply to one bid. It is sent once it is known and so are the
+     * replies to the client's earlier bids, so a client can match replies
+     * to its bids in order even if a rejection is known before the
+     * acceptance of an earlier bid.
+     */
+    static final class BidReply {
+        private final Client client;
+        private Frame frame; // Null until known; guarded by bidReplies
+
+        private BidReply(Client client) {
+            this.client = client;
+        }
+
+        void send(String msg) {
+            send(Frame.of(msg));
+        }
+
+        void send(Frame frame) {
+            client.replied(this, frame);
+        }
+    }
+
+    /**
+     * Queues an encoded frame for just this client.
+     */
+    abstract void send(Frame frame);
+
+    /**
+     * How many frames are waiting to be written to this client.
+     */
+    abstract int queuedMessages();
+
+    /**
+     * Called when a bid from this client has become the high bid, just
+     * before the client is told so. A bidder wants to hear about that lot.
+     */
+    void bidAccepted(int lotId) {
+        Subscriptions.watchOnBid(this, lotId);
+    }
+
+    /**
+     * Sends a message to just this client.
+     */
+    void sendMessage(String msg) {
+        send(Frame.of(msg));
+    }
+
+    /**
+     * Keeps the place of the reply to a bid just taken, to be sent with
+     * BidReply.send. Called by the thread reading the client's frames, in
+     * the order of its bids.
+     */
+    BidReply bidReply() {
+        BidReply reply = new BidReply(this);
+        synchronized (bidReplies) {
+            bidReplies.add(reply);
+        }
+        return reply;
+    }
+
+    /**
+     * Sends the reply to a bid, after those to the client's earlier bids.
+     */
+    void sendBidReply(String msg) {
+        bidReply().send(msg);
+    }
+
+    private void replied(BidReply reply, Frame frame) {
+        synchronized (bidReplies) {
+            reply.frame = frame;
+            while (!bidReplies.isEmpty() && bidReplies.peek().frame != null) {
+                send(bidReplies.poll().frame);
+            }
+        }
+    }
+
+    /**
+     * Returns the nickname encoded in buf[start..end), reusing the String
+     * from the previous frame when the bytes are the same.
+     */
+    String nickname(ByteBuffer buf, int start, int end) throws UTFDataFormatException {
+        if (nickname == null || !CommandParser.matches(buf, start, end, nicknameBytes)) {
+            byte[] bytes = new byte[end - start];
+            buf.get(start, bytes);
+            nickname = ModifiedUtf8.decode(ByteBuffer.wrap(bytes), bytes.length);
+            nicknameBytes = bytes;
+        }
+        return nickname;
+    }
+
+    Throttle throttle() {
+        if (throttle == null) {
+            throttle = new Throttle(this);
+        }
+        return throttle;
+    }
+
+    /**
+     * The client's binary protocol session, or null while it speaks text.
+     */
+    Session session() {
+        return session;
+    }
+
+    void startSession(Session session) {
+        this.session = session;
+    }
+}
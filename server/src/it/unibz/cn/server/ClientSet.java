@@ -0,0 +1,60 @@
+package it.unibz.cn.server;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.IntConsumer;
+
+/**
+ * A set of clients kept as a bitset over their ids (see
+ * {@link Subscriptions}): 50k clients fit in 6 KB and walking the set is a
+ * scan over a few hundred words. Walking never locks, so a broadcast is not
+ * held up by clients subscribing; changes, which are rare, take the set's
+ * lock and write whole words atomically.
+ */
+final class ClientSet {
+
+    // Replaced by a bigger copy when an id does not fit
+    private volatile AtomicLongArray words = new AtomicLongArray(16);
+
+    synchronized void add(int id) {
+        int index = id >>> 6;
+        if (index >= words.length()) {
+            AtomicLongArray bigger = new AtomicLongArray(Math.max(index + 1, words.length() * 2));
+            for (int i = 0; i < words.length(); i++) {
+                bigger.set(i, words.get(i));
+            }
+            words = bigger;
+        }
+        words.set(index, words.get(index) | (1L << id));
+    }
+
+    synchronized void remove(int id) {
+        int index = id >>> 6;
+        if (index < words.length()) {
+            words.set(index, words.get(index) & ~(1L << id));
+        }
+    }
+
+    boolean contains(int id) {
+        AtomicLongArray current = words;
+        int index = id >>> 6;
+        return index < current.length() && (current.get(index) & (1L << id)) != 0;
+    }
+
+    /**
+     * Calls action with the id of every client in a or b, once each.
+     * A client added or removed meanwhile may or may not be included.
+     * @param b A second set, or null
+     */
+    static void forEach(ClientSet a, ClientSet b, IntConsumer action) {
+        AtomicLongArray first = a.words;
+        AtomicLongArray second = (b == null) ? first : b.words;
+        int length = Math.max(first.length(), second.length());
+        for (int i = 0; i < length; i++) {
+            long word = (i < first.length() ? first.get(i) : 0) | (i < second.length() ? second.get(i) : 0);
+            while (word != 0) {
+                action.accept((i << 6) + Long.numberOfTrailingZeros(word));
+                word &= word - 1;
+            }
+        }
+    }
+}
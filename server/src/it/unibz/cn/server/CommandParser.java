@@ -0,0 +1,99 @@
+package it.unibz.cn.server;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Helpers for scanning a text frame in place. Commands are plain ASCII, so
+ * they can be matched and their numbers parsed directly on the modified
+ * UTF-8 bytes, without decoding the frame into a String or splitting it.
+ * All positions are absolute indices into the buffer.
+ */
+final class CommandParser {
+
+    private CommandParser() {
+    }
+
+    /**
+     * Finds the ": " that separates the nickname from the message.
+     * @return the index of the ':', or -1 if there is none
+     */
+    static int separator(ByteBuffer buf, int start, int end) {
+        for (int i = start; i < end - 1; i++) {
+            if (buf.get(i) == ':' && buf.get(i + 1) == ' ') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Index of the first space in buf[start..end), or end if there is none.
+     */
+    static int endOfWord(ByteBuffer buf, int start, int end) {
+        int i = start;
+        while (i < end && buf.get(i) != ' ') {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Skips leading whitespace, the way String.trim does.
+     */
+    static int skipWhitespace(ByteBuffer buf, int start, int end) {
+        while (start < end && isWhitespace(buf.get(start))) {
+            start++;
+        }
+        return start;
+    }
+
+    /**
+     * Drops trailing whitespace, the way String.trim does.
+     */
+    static int trimWhitespace(ByteBuffer buf, int start, int end) {
+        while (end > start && isWhitespace(buf.get(end - 1))) {
+            end--;
+        }
+        return end;
+    }
+
+    /**
+     * Whether buf[start..end) holds exactly the given bytes.
+     */
+    static boolean matches(ByteBuffer buf, int start, int end, byte[] word) {
+        if (end - start != word.length) {
+            return false;
+        }
+        for (int i = 0; i < word.length; i++) {
+            if (buf.get(start + i) != word[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses a non-negative int such as a lot id.
+     * @return the number, or -1 if buf[start..end) is not one
+     */
+    static int parseInt(ByteBuffer buf, int start, int end) {
+        if (start == end || end - start > 9) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            byte b = buf.get(i);
+            if (b < '0' || b > '9') {
+                return -1;
+            }
+            value = value * 10 + (b - '0');
+        }
+        return value;
+    }
+
+    // Bytes below 0x80 are single characters in modified UTF-8, and trim
+    // removes every character up to and including the space
+    private static boolean isWhitespace(byte b) {
+        return b >= 0 && b <= ' ';
+    }
+}
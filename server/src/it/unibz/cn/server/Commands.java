@@ -0,0 +1,413 @@
+package it.unibz.cn.server;
+
+import java.io.UTFDataFormatException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The command handlers shared by every server mode. Connections hand each
+ * frame they receive to {@link #handleFrame} and do not need to know
+ * anything about the auction or the protocol themselves.
+ */
+final class Commands {
+
+    private Commands() {
+    }
+
+    // Command words, matched against the frame's bytes
+    private static final byte[] BID = ascii("/bid");
+    private static final byte[] LIST = ascii("/list");
+    private static final byte[] HELP = ascii("/help");
+    private static final byte[] EXIT = ascii("exit");
+    private static final byte[] QUIT = ascii("/quit");
+    private static final byte[] BINARY = ascii("/binary");
+    private static final byte[] WATCH = ascii("/watch");
+    private static final byte[] UNWATCH = ascii("/unwatch");
+    private static final byte[] MUTE = ascii("/mute");
+    private static final byte[] UNMUTE = ascii("/unmute");
+    private static final byte[] ALL = ascii("all");
+    private static final byte[] CHAT = ascii("chat");
+
+    private static byte[] ascii(String word) {
+        return word.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Handles one frame received from a client, whichever protocol it speaks.
+     * @param payload The frame without its length prefix; only valid during
+     *        the call
+     * @param client The client that sent it (to send private replies)
+     * @return false if the client asked to disconnect
+     */
+    static boolean handleFrame(ByteBuffer payload, Client client) throws UTFDataFormatException {
+        Session session = client.session();
+        if (session == null) {
+            return handleText(payload, client);
+        }
+        return handleBinary(payload, session, client);
+    }
+
+    /**
+     * Handles one text frame, "nickname: message". The frame is scanned once
+     * in place; only chat, which is broadcast as text, is decoded to a String.
+     * @return false if the client asked to disconnect
+     */
+    private static boolean handleText(ByteBuffer payload, Client client) throws UTFDataFormatException {
+        int start = payload.position();
+        int end = payload.limit();
+
+        // Parse the client's message
+        // The client sends "nickname: message"
+        int separator = CommandParser.separator(payload, start, end);
+        if (separator == -1) {
+            if (Log.isEnabled(Log.Level.DEBUG)) {
+                Log.debug("Received malformed message: {}", ModifiedUtf8.decode(payload, end - start));
+            }
+            return true; // Ignore
+        }
+        // Server messages start with a tag such as "[Bid]"; chat, which is
+        // relayed as "nickname: text", must not be able to pass for one
+        if (payload.get(start) == '[') {
+            client.sendMessage("[Error] Nicknames cannot start with '['.");
+            return true;
+        }
+
+        // The message, trimmed, and its first word
+        int messageStart = CommandParser.skipWhitespace(payload, separator + 2, end);
+        int messageEnd = CommandParser.trimWhitespace(payload, messageStart, end);
+        int wordEnd = CommandParser.endOfWord(payload, messageStart, messageEnd);
+        boolean hasArguments = wordEnd < messageEnd;
+        Throttle throttle = client.throttle();
+
+        // Handle commands
+        if (hasArguments && CommandParser.matches(payload, messageStart, wordEnd, BID)) {
+            if (throttle.allowBid()) {
+                handleBid(client.nickname(payload, start, separator), payload, wordEnd, messageEnd, client);
+            }
+        } 
+        else if (CommandParser.matches(payload, messageStart, messageEnd, EXIT)
+                || CommandParser.matches(payload, messageStart, messageEnd, QUIT)) {
+            return false; // Client requested disconnect
+        }
+        else if (!isQuery(payload, messageStart, wordEnd, messageEnd)) {
+            // If not a command, it's a chat message (a stray "/shrug"
+            // included), charged as chat only
+            if (throttle.allowChat()) {
+                TCPServer.broadcastChat(ModifiedUtf8.decode(payload, end - start));
+            }
+        }
+        else if (!throttle.allowQuery()) {
+            return true;
+        }
+        else if (CommandParser.matches(payload, messageStart, messageEnd, LIST)) {
+            sendCurrentItemStatus(client);
+        } 
+        else if (hasArguments && CommandParser.matches(payload, messageStart, wordEnd, LIST)) {
+            handleList(payload, wordEnd, messageEnd, client);
+        } 
+        else if (CommandParser.matches(payload, messageStart, messageEnd, HELP)) {
+            sendHelp(client);
+        } 
+        else if (hasArguments && CommandParser.matches(payload, messageStart, wordEnd, WATCH)) {
+            handleWatch(payload, wordEnd, messageEnd, true, client);
+        }
+        else if (hasArguments && CommandParser.matches(payload, messageStart, wordEnd, UNWATCH)) {
+            handleWatch(payload, wordEnd, messageEnd, false, client);
+        }
+        else if (hasArguments && CommandParser.matches(payload, messageStart, wordEnd, MUTE)) {
+            handleMute(payload, wordEnd, messageEnd, true, client);
+        }
+        else if (hasArguments && CommandParser.matches(payload, messageStart, wordEnd, UNMUTE)) {
+            handleMute(payload, wordEnd, messageEnd, false, client);
+        }
+        else {
+            // /binary: bind the nickname to a session and switch to binary frames
+            Session session = Session.login(client.nickname(payload, start, separator));
+            client.sendMessage("[Proto] binary " + session.id);
+            client.startSession(session);
+        }
+        return true;
+    }
+
+    /**
+     * Whether the trimmed message in buf[start..end), whose first word ends
+     * at wordEnd, is one of the commands charged as a query: /list, /help,
+     * /binary, or /list, /watch, /unwatch, /mute or /unmute with arguments.
+     * Must match the commands handleText dispatches after checking it.
+     */
+    private static boolean isQuery(ByteBuffer buf, int start, int wordEnd, int end) {
+        if (wordEnd < end) {
+            return CommandParser.matches(buf, start, wordEnd, LIST)
+                || CommandParser.matches(buf, start, wordEnd, WATCH)
+                || CommandParser.matches(buf, start, wordEnd, UNWATCH)
+                || CommandParser.matches(buf, start, wordEnd, MUTE)
+                || CommandParser.matches(buf, start, wordEnd, UNMUTE);
+        }
+        return CommandParser.matches(buf, start, end, LIST)
+            || CommandParser.matches(buf, start, end, HELP)
+            || CommandParser.matches(buf, start, end, BINARY);
+    }
+
+    /**
+     * Handles one frame of the {@link BinaryProtocol}. Reads the arguments
+     * straight out of the buffer, without building any strings, except for
+     * chat, which has to become text anyway.
+     */
+    private static boolean handleBinary(ByteBuffer payload, Session session, Client client)
+            throws UTFDataFormatException {
+        try {
+            byte opcode = payload.get();
+            int sessionId = BinaryProtocol.readVarInt(payload);
+            if (sessionId != session.id) {
+                client.sendMessage("[Error] Unknown session " + sessionId + ".");
+                return true;
+            }
+            if (!allowed(opcode, client.throttle())) {
+                return true;
+            }
+
+            switch (opcode) {
+                case BinaryProtocol.BID: {
+                    int lotId = BinaryProtocol.readVarInt(payload);
+                    long bidAmount = BinaryProtocol.readVarLong(payload);
+                    if (bidAmount <= 0 || bidAmount > Money.MAX_CENTS) {
+                        client.sendBidReply("[Bid] Rejected: Invalid amount. Please enter a number.");
+                    } else if (lotId == 0) {
+                        TCPServer.placeBid(session.nickname, bidAmount, client);
+                    } else {
+                        TCPServer.placeBid(session.nickname, lotId, bidAmount, client);
+                    }
+                    break;
+                }
+                case BinaryProtocol.LIST: {
+                    int lotId = BinaryProtocol.readVarInt(payload);
+                    if (lotId == 0) {
+                        sendCurrentItemStatus(client);
+                    } else {
+                        sendLotStatus(lotId, client);
+                    }
+                    break;
+                }
+                case BinaryProtocol.CHAT:
+                    String message = ModifiedUtf8.decode(payload, payload.remaining());
+                    TCPServer.broadcastChat(session.nickname + ": " + message);
+                    break;
+                case BinaryProtocol.WATCH:
+                case BinaryProtocol.UNWATCH: {
+                    int lotId = BinaryProtocol.readVarInt(payload);
+                    boolean watch = opcode == BinaryProtocol.WATCH;
+                    if (lotId == 0) {
+                        watchAll(watch, client);
+                    } else {
+                        watch(lotId, watch, client);
+                    }
+                    break;
+                }
+                case BinaryProtocol.MUTE:
+                case BinaryProtocol.UNMUTE:
+                    if (BinaryProtocol.readVarInt(payload) != BinaryProtocol.CHANNEL_CHAT) {
+                        client.sendMessage("[Error] Unknown channel. Use: /mute chat");
+                    } else {
+                        mute(opcode == BinaryProtocol.MUTE, client);
+                    }
+                    break;
+                case BinaryProtocol.HELP:
+                    sendHelp(client);
+                    break;
+                case BinaryProtocol.QUIT:
+                    return false; // Client requested disconnect
+                default:
+                    client.sendMessage("[Error] Unknown opcode " + opcode + ".");
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            Log.debug("Received malformed binary frame from {}", session.nickname);
+            client.sendMessage("[Error] Malformed binary frame.");
+        }
+        return true;
+    }
+
+    /**
+     * Takes a token for a binary command from the bucket of its kind.
+     */
+    private static boolean allowed(byte opcode, Throttle throttle) {
+        switch (opcode) {
+            case BinaryProtocol.BID:
+                return throttle.allowBid();
+            case BinaryProtocol.CHAT:
+                return throttle.allowChat();
+            case BinaryProtocol.QUIT:
+                return true;
+            default:
+                return throttle.allowQuery();
+        }
+    }
+
+    /**
+     * Parses the arguments of a bid command, "/bid <amount>" or
+     * "/bid <lot> <amount>", found in buf[from..end), and passes it to the
+     * main server. Amounts are read straight into cents.
+     */
+    private static void handleBid(String nickname, ByteBuffer buf, int from, int end, Client client) {
+        int firstStart = CommandParser.skipWhitespace(buf, from, end);
+        int firstEnd = CommandParser.endOfWord(buf, firstStart, end);
+        int secondStart = CommandParser.skipWhitespace(buf, firstEnd, end);
+        int secondEnd = CommandParser.endOfWord(buf, secondStart, end);
+        if (secondEnd < end) {
+            client.sendBidReply("[Bid] Rejected: Invalid bid. Use: /bid <lot> <amount>");
+            return;
+        }
+
+        if (secondStart == end) {
+            long bidAmount = Money.parseCents(buf, firstStart, firstEnd);
+            if (bidAmount < 0) {
+                client.sendBidReply("[Bid] Rejected: Invalid amount. Please enter a number.");
+                return;
+            }
+            TCPServer.placeBid(nickname, bidAmount, client);
+        } else {
+            int lotId = CommandParser.parseInt(buf, firstStart, firstEnd);
+            long bidAmount = Money.parseCents(buf, secondStart, secondEnd);
+            if (lotId < 0 || bidAmount < 0) {
+                client.sendBidReply("[Bid] Rejected: Invalid amount. Please enter a number.");
+                return;
+            }
+            TCPServer.placeBid(nickname, lotId, bidAmount, client);
+        }
+    }
+
+    /**
+     * Parses "/list <lot>" and sends that lot's status.
+     */
+    private static void handleList(ByteBuffer buf, int from, int end, Client client) {
+        int lotId = CommandParser.parseInt(buf, CommandParser.skipWhitespace(buf, from, end), end);
+        if (lotId < 0) {
+            client.sendMessage("[Error] Invalid lot. Use: /list <lot>");
+            return;
+        }
+        sendLotStatus(lotId, client);
+    }
+
+    private static void sendLotStatus(int lotId, Client client) {
+        Item item = TCPServer.liveLots.get(lotId);
+        if (item != null) {
+            sendItemStatus(item, client);
+        } else {
+            client.sendMessage("Lot " + lotId + " is not up for auction.");
+        }
+    }
+
+    /**
+     * Parses "/watch <lot>", "/watch all" or their /unwatch counterparts.
+     */
+    private static void handleWatch(ByteBuffer buf, int from, int end, boolean watch, Client client) {
+        int argumentStart = CommandParser.skipWhitespace(buf, from, end);
+        if (CommandParser.matches(buf, argumentStart, end, ALL)) {
+            watchAll(watch, client);
+            return;
+        }
+        int lotId = CommandParser.parseInt(buf, argumentStart, end);
+        if (lotId <= 0) {
+            client.sendMessage("[Error] Invalid lot. Use: /" + (watch ? "watch" : "unwatch") + " <lot> or all");
+            return;
+        }
+        watch(lotId, watch, client);
+    }
+
+    private static void watch(int lotId, boolean watch, Client client) {
+        if (!watch) {
+            Subscriptions.unwatch(client, lotId);
+            client.sendMessage("[Watch] No longer watching lot " + lotId + ".");
+        } else if (Subscriptions.watch(client, lotId)) {
+            client.sendMessage("[Watch] Watching lot " + lotId + ". Use /watch all to follow every lot.");
+        } else {
+            client.sendMessage("Lot " + lotId + " is not up for auction.");
+        }
+    }
+
+    private static void watchAll(boolean all, Client client) {
+        Subscriptions.watchAll(client, all);
+        client.sendMessage(all ? "[Watch] Following every lot." : "[Watch] Not following any lot.");
+    }
+
+    /**
+     * Parses "/mute chat" or "/unmute chat".
+     */
+    private static void handleMute(ByteBuffer buf, int from, int end, boolean mute, Client client) {
+        if (!CommandParser.matches(buf, CommandParser.skipWhitespace(buf, from, end), end, CHAT)) {
+            client.sendMessage("[Error] Unknown channel. Use: /" + (mute ? "mute" : "unmute") + " chat");
+            return;
+        }
+        mute(mute, client);
+    }
+
+    private static void mute(boolean mute, Client client) {
+        Subscriptions.chat(client, !mute);
+        client.sendMessage(mute ? "[Mute] Chat muted." : "[Mute] Chat unmuted.");
+    }
+
+    // Messages that never change, encoded once
+    private static final Frame WELCOME = Frame.of(
+        "Welcome to the Synchronous Auction!",
+        "Type /help for a list of commands."
+    );
+    private static final Frame NO_AUCTION = Frame.of("No auction is currently active. Please wait.");
+
+    /**
+     * Sends a private message to the client with the status of every live lot.
+     */
+    static void sendCurrentItemStatus(Client client) {
+        if (TCPServer.liveLots.isEmpty()) {
+            client.send(NO_AUCTION);
+            return;
+        }
+        for (Item item : TCPServer.liveLots.values()) {
+            sendItemStatus(item, client);
+        }
+    }
+
+    /**
+     * Sends one lot's status, built only when its bidding state changed.
+     */
+    private static void sendItemStatus(Item item, Client client) {
+        client.send(item.statusFrame());
+    }
+
+    /**
+     * Encodes a lot's status in the given bidding state, for
+     * Item.statusFrame to keep.
+     */
+    static Frame itemStatus(Item item, BidState state) {
+        String bid = state.hasBids()
+            ? "Current Bid: $" + Money.format(state.amount) + " (by " + state.bidder + ")"
+            : "No bids yet. Minimum bid is $" + Money.format(item.startPrice);
+        return Frame.of("--- Current Item Status ---", item.toString(), bid);
+    }
+
+    /**
+     * Sends a welcome message to the client when they first join.
+     */
+    static void sendWelcomeMessage(Client client) {
+        client.send(WELCOME);
+        sendCurrentItemStatus(client);
+    }
+    
+    /**
+     * Sends the command list to the client.
+     */
+    private static void sendHelp(Client client) {
+        client.sendMessage("--- Auction Commands ---");
+        client.sendMessage("/bid <lot> <amount> - Place a bid on a lot.");
+        client.sendMessage("/bid <amount>  - Place a bid when only one lot is open.");
+        client.sendMessage("/list          - Show info about the open lots.");
+        client.sendMessage("/list <lot>    - Show info about one lot.");
+        client.sendMessage("/watch <lot>   - Only get news of the lots you watch.");
+        client.sendMessage("/unwatch <lot> - Stop getting news of a lot.");
+        client.sendMessage("/watch all     - Get news of every lot (the default).");
+        client.sendMessage("/mute chat     - Stop receiving chat (/unmute chat to undo).");
+        client.sendMessage("/help          - Show this help message.");
+        client.sendMessage("exit or /quit  - Disconnect from the auction.");
+        client.sendMessage("/binary        - Switch to the compact binary protocol.");
+        client.sendMessage("(Anything else)  - Send a chat message to everyone.");
+    }
+}
@@ -2,161 +2,136 @@ package it.unibz.cn.server;
 
 import java.net.*;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
 
-class Connection extends Thread {
+/**
+ * A client served by its own thread, blocking on readUTF. The server runs
+ * it on a platform thread in {@link ServerMode#BLOCKING} and on a virtual
+ * thread in {@link ServerMode#VIRTUAL}.
+ * Output goes through an {@link OutboundQueue} drained by a writer on a
+ * virtual thread, so sending to this client never blocks the sender and a
+ * blocking server does not need two platform threads per client.
+ */
+class Connection extends Client implements Runnable {
+
+    // Most frames one gathering write hands to the socket
+    private static final int WRITE_BATCH = 64;
+    // Start small: most frames are short and there may be 50k connections
+    private static final int INITIAL_FRAME_BUFFER = 256;
 
     DataInputStream in;
-    DataOutputStream out;
+    SocketChannel channel;
     Socket clientSocket;
 
-    public Connection(Socket aClientSocket) {
-        try {
-            this.clientSocket = aClientSocket;
-            this.in = new DataInputStream(clientSocket.getInputStream());
-            this.out = new DataOutputStream(clientSocket.getOutputStream());
-            this.start();
-        } catch (IOException e) {
-            System.out.println("Connection: " + e.getMessage());
-        }
+    private final OutboundQueue outbound = new OutboundQueue(
+        ServerConfig.OUTBOUND_QUEUE, ServerConfig.SLOW_CONSUMER_POLICY
+    );
+
+    /**
+     * @param aClientChannel An accepted channel in blocking mode. The reader
+     *        uses its socket's stream, the writer writes frames to the
+     *        channel directly.
+     */
+    public Connection(SocketChannel aClientChannel) throws IOException {
+        this.channel = aClientChannel;
+        this.clientSocket = aClientChannel.socket();
+        this.in = new DataInputStream(new BufferedInputStream(clientSocket.getInputStream()));
     }
 
     public void run() {
+        // The writer spends its time waiting, which is cheap on a virtual thread
+        Thread writer = Thread.ofVirtual().start(this::writeLoop);
         try {
             // Add this client to the global list
             TCPServer.allClients.add(this);
-            System.out.println("Client added. Total clients: " + TCPServer.allClients.size());
+            Subscriptions.register(this);
+            Metrics.connectionsOpened.increment();
+            Log.debug("Client added. Total clients: {}", TCPServer.allClients.size());
             
             // Send welcome message and current status
-            sendWelcomeMessage();
+            Commands.sendWelcomeMessage(this);
             
-            String rawData;
-            // Loop, reading messages from the client
-            while ((rawData = this.in.readUTF()) != null) {
-                
-                // Parse the client's message
-                // The client sends "nickname: message"
-                int separatorIndex = rawData.indexOf(": ");
-                if (separatorIndex == -1) {
-                    System.out.println("Received malformed message: " + rawData);
-                    continue; // Ignore
+            // Loop, reading frames from the client into a reused buffer
+            byte[] frame = new byte[INITIAL_FRAME_BUFFER];
+            ByteBuffer payload = ByteBuffer.wrap(frame);
+            while (true) {
+                int length = this.in.readUnsignedShort();
+                if (length > frame.length) {
+                    frame = new byte[Math.max(length, Math.min(frame.length * 2, ModifiedUtf8.MAX_LENGTH))];
+                    payload = ByteBuffer.wrap(frame);
                 }
-                
-                String nickname = rawData.substring(0, separatorIndex);
-                String message = rawData.substring(separatorIndex + 2).trim();
-
-                // Handle commands
-                if (message.startsWith("/bid ")) {
-                    handleBid(nickname, message);
-                } 
-                else if (message.equals("/list")) {
-                    sendCurrentItemStatus();
-                } 
-                else if (message.equals("/help")) {
-                    sendHelp();
-                } 
-                else if (message.equals("exit") || message.equals("/quit")) {
+                this.in.readFully(frame, 0, length);
+                Metrics.bytesIn.add(2 + length);
+                payload.clear().limit(length);
+                if (!Commands.handleFrame(payload, this)) {
                     break; // Client requested disconnect
                 }
-                else {
-                    // If not a command, it's a chat message. Broadcast it.
-                    TCPServer.broadcast(rawData);
-                }
             }
         } catch (EOFException e) {
-            System.out.println("Client disconnected: " + clientSocket.getRemoteSocketAddress());
+            Log.debug("Client disconnected: {}", clientSocket.getRemoteSocketAddress());
         } catch (IOException e) {
-            System.out.println("IO: " + e.getMessage());
+            Log.debug("IO: {}", e.getMessage());
         } finally {
-            // Remove client from list and close socket
+            // Remove client from list, let the writer finish and close socket
             TCPServer.allClients.remove(this);
-            System.out.println("Client removed. Total clients: " + TCPServer.allClients.size());
+            Subscriptions.unregister(this);
+            Metrics.connectionsClosed.increment();
+            Log.debug("Client removed. Total clients: {}", TCPServer.allClients.size());
+            outbound.close();
             try {
-                clientSocket.close();
-            } catch (IOException e) {
-                /* close failed */
+                writer.join(1000); // Give queued replies (e.g. to /quit) a moment to go out
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
+            closeSocket();
         }
     }
 
     /**
-     * Parses a bid command and passes it to the main server.
+     * Drains the outbound queue onto the socket. Each batch of queued frames
+     * goes out in one gathering write, straight from the shared encoded
+     * bytes.
      */
-    private void handleBid(String nickname, String message) {
+    private void writeLoop() {
+        ByteBuffer[] batch = new ByteBuffer[WRITE_BATCH];
         try {
-            String[] parts = message.split(" ");
-            if (parts.length != 2) {
-                sendMessage("[Error] Invalid bid. Use: /bid <amount>");
-                return;
+            int count;
+            while ((count = outbound.takeBatch(batch)) > 0) {
+                while (batch[count - 1].hasRemaining()) {
+                    Metrics.bytesOut.add(channel.write(batch, 0, count));
+                }
+                Arrays.fill(batch, 0, count, null);
             }
-            double bidAmount = Double.parseDouble(parts[1]);
-            TCPServer.placeBid(nickname, bidAmount, this);
-            
-        } catch (NumberFormatException e) {
-            sendMessage("[Error] Invalid amount. Please enter a number.");
+        } catch (IOException e) {
+            Log.debug("Failed to send to {}: {}", clientSocket.getRemoteSocketAddress(), e.getMessage());
+            closeSocket(); // Also wakes the reader
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
     /**
-     * Sends a private message to this client with the current item's status.
+     * Queues a frame for just this client. Never blocks; if the client is
+     * too far behind the slow consumer policy applies.
      */
-    private void sendCurrentItemStatus() {
-        // Use the lock to safely read the currentItem
-        synchronized (TCPServer.auctionLock) {
-            if (TCPServer.currentItem != null) {
-                Item item = TCPServer.currentItem;
-                sendMessage("--- Current Item Status ---");
-                sendMessage(item.toString());
-                if (item.currentHighestBidder != null) {
-                    sendMessage(String.format(
-                        "Current Bid: $%.2f (by %s)",
-                        item.currentHighestBid, item.currentHighestBidder
-                    ));
-                } else {
-                    sendMessage(String.format(
-                        "No bids yet. Minimum bid is $%.2f",
-                        item.getMinimumNextBid()
-                    ));
-                }
-            } else {
-                sendMessage("No auction is currently active. Please wait.");
-            }
+    public void send(Frame frame) {
+        if (!outbound.offer(frame)) {
+            Log.info("Disconnecting slow client {}", clientSocket.getRemoteSocketAddress());
+            closeSocket(); // The reader sees the closed socket and cleans up
         }
     }
 
-    /**
-     * Sends a welcome message to the client when they first join.
-     */
-    private void sendWelcomeMessage() {
-        sendMessage("Welcome to the Synchronous Auction!");
-        sendMessage("Type /help for a list of commands.");
-        sendCurrentItemStatus();
-    }
-    
-    /**
-     * Sends the command list to the client.
-     */
-    private void sendHelp() {
-        sendMessage("--- Auction Commands ---");
-        sendMessage("/bid <amount>  - Place a bid on the current item.");
-        sendMessage("/list          - Show info about the current item.");
-        sendMessage("/help          - Show this help message.");
-        sendMessage("exit or /quit  - Disconnect from the auction.");
-        sendMessage("(Anything else)  - Send a chat message to everyone.");
+    int queuedMessages() {
+        return outbound.size();
     }
 
-    /**
-     * Sends a message to just this client.
-     * Synchronized to prevent multiple threads (e.g., a broadcast and a
-     * private reply) from writing at the exact same time.
-     */
-    public synchronized void sendMessage(String msg) {
+    private void closeSocket() {
         try {
-            if (!clientSocket.isClosed()) {
-                this.out.writeUTF(msg);
-                this.out.flush();
-            }
+            clientSocket.close();
         } catch (IOException e) {
-            System.out.println("Failed to send to " + clientSocket.getRemoteSocketAddress() + ": " + e.getMessage());
+            /* close failed */
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,98 @@
+package it.unibz.cn.server;
+
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+
+/**
+ * A message already encoded the way writeUTF would send it. Frames are
+ * immutable, so a broadcast is encoded once and every recipient writes its
+ * own {@link #view()} of the same bytes. Messages between nodes (see
+ * {@link LinkProtocol}) travel as frames too.
+ */
+final class Frame {
+
+    private final ByteBuffer bytes;
+    // Whether this is news for many clients rather than a private reply.
+    // A slow client's queue may drop broadcasts, never replies.
+    final boolean broadcast;
+
+    private Frame(ByteBuffer bytes, boolean broadcast) {
+        this.bytes = bytes.asReadOnlyBuffer();
+        this.broadcast = broadcast;
+    }
+
+    /**
+     * Encodes a message meant for a single client.
+     */
+    static Frame of(String msg) {
+        return new Frame(ByteBuffer.wrap(encode(msg)), false);
+    }
+
+    /**
+     * Encodes several messages as one frame, so they go out with a single
+     * write. Kept on the heap: such frames are rebuilt often enough that
+     * allocating off-heap would cost more than it saves.
+     */
+    static Frame of(String... msgs) {
+        byte[][] encoded = new byte[msgs.length][];
+        int size = 0;
+        for (int i = 0; i < msgs.length; i++) {
+            encoded[i] = encode(msgs[i]);
+            size += encoded[i].length;
+        }
+        ByteBuffer bytes = ByteBuffer.allocate(size);
+        for (byte[] msg : encoded) {
+            bytes.put(msg);
+        }
+        return new Frame(bytes.flip(), false);
+    }
+
+    /**
+     * Encodes a message meant for many clients. The bytes live off-heap, so
+     * writing them to a socket does not copy them into a temporary direct
+     * buffer once per recipient as a heap buffer would.
+     */
+    static Frame forBroadcast(String msg) {
+        byte[] encoded = encode(msg);
+        ByteBuffer direct = ByteBuffer.allocateDirect(encoded.length);
+        direct.put(encoded).flip();
+        return new Frame(direct, true);
+    }
+
+    /**
+     * Copies a message someone else encoded, e.g. one relayed by the
+     * authority node, off-heap for sending to many clients.
+     */
+    static Frame forBroadcast(ByteBuffer encoded) {
+        ByteBuffer direct = ByteBuffer.allocateDirect(encoded.remaining());
+        direct.put(encoded).flip();
+        return new Frame(direct, true);
+    }
+
+    /**
+     * Wraps bytes that are already encoded. The caller must not change them
+     * afterwards.
+     */
+    static Frame wrap(ByteBuffer encoded) {
+        return new Frame(encoded, false);
+    }
+
+    private static byte[] encode(String msg) {
+        try {
+            return ModifiedUtf8.encodeFrame(msg);
+        } catch (UTFDataFormatException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /**
+     * A fresh view of the encoded bytes with its own position, for one write.
+     */
+    ByteBuffer view() {
+        return bytes.duplicate();
+    }
+
+    int size() {
+        return bytes.remaining();
+    }
+}
@@ -0,0 +1,201 @@
+package it.unibz.cn.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A gateway node: terminates client connections like any server, but the
+ * auction itself runs on the {@link Authority} node. Bids and chat are
+ * forwarded over one {@link NodeLink}; the authority's broadcasts come
+ * back already encoded and are fanned out to the gateway's own clients
+ * through its {@link Subscriptions}. The live lots are mirrored from the
+ * authority, so /list, /watch and the welcome message are answered
+ * locally. Add gateways to take on more connections, e.g. on one host:
+ * <pre>
+ *   java -Dauction.linkPort=7900 it.unibz.cn.server.TCPServer nio
+ *   java -Dauction.authority=localhost:7900 -Dauction.port=7901 -Dauction.metricsPort=0 \
+ *        it.unibz.cn.server.TCPServer nio
+ *   java -Dauction.authority=localhost:7900 -Dauction.port=7902 -Dauction.metricsPort=0 \
+ *        it.unibz.cn.server.TCPServer nio
+ * </pre>
+ * If the link drops, bids waiting for an answer are failed, the mirror is
+ * emptied and the gateway reconnects, getting a fresh copy of the lots.
+ * Given several authorities (a primary and its {@link Replication
+ * standby}), it tries each in turn until one answers.
+ */
+final class Gateway {
+
+    private static final long RECONNECT_MILLIS = 1000;
+
+    private final List<InetSocketAddress> authorities;
+    private volatile NodeLink link;
+
+    // Bids forwarded and not answered yet, by request number
+    private final Map<Long, PendingBid> pending = new ConcurrentHashMap<>();
+    private final AtomicLong nextRequest = new AtomicLong();
+
+    private record PendingBid(Client client, Client.BidReply reply, long startNanos) {
+    }
+
+    private Gateway(List<InetSocketAddress> authorities) {
+        this.authorities = authorities;
+    }
+
+    /**
+     * Starts linking to the authority, given as "host:port" or a list of
+     * them separated by commas, on a background thread.
+     */
+    static Gateway start(String authorities) {
+        Gateway gateway = new Gateway(Arrays.stream(authorities.split(","))
+            .map(String::trim)
+            .map(NodeLink::address)
+            .toList());
+        Thread.ofPlatform().name("gateway-link").daemon().start(gateway::linkLoop);
+        return gateway;
+    }
+
+    private void linkLoop() {
+        boolean warned = false;
+        int next = 0;
+        while (true) {
+            InetSocketAddress authority = authorities.get(next);
+            try (SocketChannel channel = SocketChannel.open(authority)) {
+                NodeLink current = new NodeLink(channel);
+                link = current;
+                warned = false;
+                Log.info("Gateway linked to the authority at {}", authority);
+                current.run(this::handle);
+            } catch (IOException e) {
+                if (!warned) {
+                    Log.warn("Cannot reach the authority at {}: {}; retrying", authority, e.getMessage());
+                }
+                next = (next + 1) % authorities.size();
+                // Each address is warned about once per outage
+                warned = warned || next == 0;
+            }
+            if (link != null) {
+                link = null;
+                lost();
+            }
+            try {
+                Thread.sleep(RECONNECT_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Fails the bids still waiting and forgets the mirrored lots.
+     */
+    private void lost() {
+        Iterator<PendingBid> waiting = pending.values().iterator();
+        while (waiting.hasNext()) {
+            waiting.next().reply.send("[Bid] Rejected: Lost contact with the auction; your bid may not have been placed.");
+            waiting.remove();
+        }
+        for (Integer lotId : TCPServer.liveLots.keySet()) {
+            TCPServer.liveLots.remove(lotId);
+            Subscriptions.lotFinished(lotId);
+        }
+    }
+
+    /**
+     * Forwards a bid to the authority; the reply comes back to client.
+     * @param lotId The lot, or 0 for the only open one
+     */
+    void bid(String bidder, int lotId, long amount, Client client) {
+        NodeLink current = link;
+        if (current == null) {
+            client.sendBidReply("[Bid] Rejected: The auction is unavailable right now. Please try again.");
+            Metrics.bidsRejected.increment();
+            return;
+        }
+        long request = nextRequest.incrementAndGet();
+        Client.BidReply reply = client.bidReply();
+        pending.put(request, new PendingBid(client, reply, System.nanoTime()));
+        current.send(LinkProtocol.bid(request, lotId, amount, bidder));
+        // If the link dropped meanwhile, lost() may already have run
+        if (link != current && pending.remove(request) != null) {
+            reply.send("[Bid] Rejected: The auction is unavailable right now. Please try again.");
+            Metrics.bidsRejected.increment();
+        }
+    }
+
+    /**
+     * Sends a chat line to the authority, which broadcasts it to every node.
+     */
+    void chat(String message) {
+        NodeLink current = link;
+        if (current != null) {
+            current.send(LinkProtocol.chat(message));
+        }
+    }
+
+    private void handle(ByteBuffer message) {
+        byte opcode = message.get();
+        switch (opcode) {
+            case LinkProtocol.LOT_LIVE: {
+                int lotId = BinaryProtocol.readVarInt(message);
+                long startPrice = BinaryProtocol.readVarLong(message);
+                long minIncrement = BinaryProtocol.readVarLong(message);
+                String description = LinkProtocol.readString(message);
+                TCPServer.liveLots.put(lotId, new Item(lotId, description, startPrice, minIncrement));
+                break;
+            }
+            case LinkProtocol.LOT_STATE: {
+                int lotId = BinaryProtocol.readVarInt(message);
+                long sequence = BinaryProtocol.readVarLong(message);
+                long amount = BinaryProtocol.readVarLong(message);
+                boolean closed = message.get() != 0;
+                String bidder = message.hasRemaining() ? LinkProtocol.readString(message) : null;
+                Item item = TCPServer.liveLots.get(lotId);
+                // Keep the newest state; only this thread changes the mirror
+                if (item != null && (sequence > item.state().sequence || (closed && !item.state().closed))) {
+                    item.restore(new BidState(amount, bidder, sequence, closed));
+                }
+                break;
+            }
+            case LinkProtocol.LOT_DONE: {
+                int lotId = BinaryProtocol.readVarInt(message);
+                TCPServer.liveLots.remove(lotId);
+                Subscriptions.lotFinished(lotId);
+                break;
+            }
+            case LinkProtocol.REPLY: {
+                long request = BinaryProtocol.readVarLong(message);
+                int acceptedLot = BinaryProtocol.readVarInt(message);
+                PendingBid bid = pending.remove(request);
+                if (bid == null) {
+                    break; // Already failed by a reconnect
+                }
+                if (acceptedLot != 0) {
+                    bid.client.bidAccepted(acceptedLot);
+                    Metrics.bidsAccepted.increment();
+                } else {
+                    Metrics.bidsRejected.increment();
+                }
+                Metrics.bidMicros.record(Metrics.micros(bid.startNanos));
+                ByteBuffer frame = ByteBuffer.allocate(message.remaining()).put(message).flip();
+                bid.reply.send(Frame.wrap(frame));
+                break;
+            }
+            case LinkProtocol.PUBLISH: {
+                byte topic = message.get();
+                int lotId = BinaryProtocol.readVarInt(message);
+                TCPServer.fanOut(topic, lotId, Frame.forBroadcast(message));
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("unknown opcode " + opcode);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package it.unibz.cn.server;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A fixed-size histogram for the server's metrics: values are counted in
+ * buckets that are linear within each power of two, so every value is
+ * kept to within about three percent whatever its magnitude. Each bucket is a
+ * LongAdder, so threads recording the same value at the same time (e.g.
+ * during a bid storm) do not contend on one counter.
+ */
+final class Histogram {
+
+    // 2^5 = 32 linear sub-buckets per power of two
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // Enough powers of two to cover any non-negative long
+    private static final int BUCKETS = 64 - SUB_BUCKET_BITS;
+
+    private final LongAdder[] counts = new LongAdder[BUCKETS * SUB_BUCKETS];
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    Histogram() {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records one value, e.g. a duration in microseconds. Negative values
+     * count as zero.
+     */
+    void record(long value) {
+        value = Math.max(value, 0);
+        counts[indexOf(value)].increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    long count() {
+        long total = 0;
+        for (LongAdder count : counts) {
+            total += count.sum();
+        }
+        return total;
+    }
+
+    long sum() {
+        return sum.sum();
+    }
+
+    long max() {
+        return max.get();
+    }
+
+    /**
+     * The smallest recorded value that percentile percent of the values do
+     * not exceed, to the histogram's precision. Values recorded while this
+     * runs may or may not be included.
+     */
+    long percentile(double percentile) {
+        long[] snapshot = new long[counts.length];
+        long total = 0;
+        for (int i = 0; i < counts.length; i++) {
+            snapshot[i] = counts[i].sum();
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= target) {
+                return Math.min(highestValueAt(i), max());
+            }
+        }
+        return max();
+    }
+
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value; // Bucket 0 holds 0..31 exactly
+        }
+        // Bucket b >= 1 holds [SUB_BUCKETS << (b - 1), SUB_BUCKETS << b).
+        // Shifted down by b - 1 such a value keeps its top bit, which is
+        // always set, and SUB_BUCKET_BITS more, which pick the sub-bucket.
+        int bucket = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> (bucket - 1)) & (SUB_BUCKETS - 1);
+        return bucket * SUB_BUCKETS + subBucket;
+    }
+
+    private static long highestValueAt(int index) {
+        int bucket = index / SUB_BUCKETS;
+        long subBucket = index % SUB_BUCKETS;
+        if (bucket == 0) {
+            return subBucket;
+        }
+        // The top bit and the sub-bucket are known; the low 'bucket - 1' bits vary
+        return ((SUB_BUCKETS + subBucket) << (bucket - 1)) | ((1L << (bucket - 1)) - 1);
+    }
+}
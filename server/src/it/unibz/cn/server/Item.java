@@ -1,40 +1,199 @@
 package it.unibz.cn.server;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
 /**
  * Represents a single item up for auction.
  */
 public class Item {
+    final int lotId; // Bidders refer to the item by this number
     String description;
-    double startPrice;
-    double minIncrement;
+    long startPrice; // Money is in cents, see Money
+    long minIncrement;
     
-    // Volatile as they are written by the auction thread and read by Connection threads
-    volatile double currentHighestBid = 0;
-    volatile String currentHighestBidder = null; // Nickname of the highest bidder
+    // The current high bid as one immutable snapshot. Bids and the close
+    // swap it with compare-and-set, so no lock is needed to update it.
+    private final AtomicReference<BidState> state = new AtomicReference<>(BidState.INITIAL);
+    // The newest of those states the journal has saved. A bid it fails to
+    // save is taken back to this one (see rollBack).
+    private final AtomicReference<BidState> saved = new AtomicReference<>(BidState.INITIAL);
+
+    // When bidding closes, in System.nanoTime() terms. 0 while the lot is
+    // not open; late bids push it back (see Auctioneer.extendIfLate).
+    final AtomicLong closeDeadline = new AtomicLong();
+
+    // Used by TCPServer to announce new high bids in sequence order
+    final AtomicBoolean announcing = new AtomicBoolean();
+    volatile long announcedSequence = 0;
+    // Coalesced announcements (auction.announceMillis): whether one is
+    // due, and when the last one went out in System.nanoTime() terms
+    final AtomicBoolean announcementDue = new AtomicBoolean();
+    volatile long announcedAt;
+
+    // The status last sent for /list and the welcome message, and the
+    // bidding state it shows; rebuilt once the state has moved on
+    private volatile Status status;
 
-    public Item(String description, double startPrice, double minIncrement) {
+    private record Status(BidState state, Frame frame) {
+    }
+
+    public Item(int lotId, String description, long startPrice, long minIncrement) {
+        this.lotId = lotId;
         this.description = description;
         this.startPrice = startPrice;
         this.minIncrement = minIncrement;
-        this.currentHighestBid = 0; // Start with no bid
-        this.currentHighestBidder = null;
+    }
+
+    /**
+     * Returns the current bidding state. The snapshot never changes, so all
+     * of its fields are consistent with each other.
+     */
+    BidState state() {
+        return state.get();
+    }
+
+    /**
+     * The lot's status as one frame for any number of clients. Lock-free
+     * like the bid state itself: the frame is built at most once per
+     * state, by whoever asks first after it changed (see
+     * Commands.itemStatus).
+     */
+    Frame statusFrame() {
+        BidState current = state.get();
+        Status cached = status;
+        if (cached == null || cached.state != current) {
+            cached = new Status(current, Commands.itemStatus(this, current));
+            status = cached;
+        }
+        return cached.frame;
     }
 
     /**
      * Calculates the minimum legal bid required to be the new high bidder.
      */
-    public double getMinimumNextBid() {
-        if (currentHighestBid == 0) {
+    public long getMinimumNextBid() {
+        return minimumNextBid(state.get());
+    }
+
+    private long minimumNextBid(BidState current) {
+        if (!current.hasBids()) {
             return startPrice;
         }
-        return currentHighestBid + minIncrement;
+        // Saturates, so a bid of Long.MAX_VALUE cannot wrap the minimum negative
+        long next = current.amount + minIncrement;
+        return (next < current.amount) ? Long.MAX_VALUE : next;
+    }
+
+    /**
+     * Tries to make bidder the new high bidder. Lock-free: a losing bid is
+     * rejected from a single read, and a winning one retries only if another
+     * bid got in first.
+     */
+    BidResult tryBid(String bidder, long amount) {
+        while (true) {
+            BidState current = state.get();
+            if (current.closed) {
+                return new BidResult(BidResult.Outcome.CLOSED, current, 0);
+            }
+            long minBid = minimumNextBid(current);
+            if (amount < minBid) {
+                return new BidResult(BidResult.Outcome.TOO_LOW, current, minBid);
+            }
+            BidState next = new BidState(amount, bidder, current.sequence + 1, false);
+            if (state.compareAndSet(current, next)) {
+                return new BidResult(BidResult.Outcome.ACCEPTED, next, minBid);
+            }
+            Metrics.bidRetries.increment();
+        }
+    }
+
+    /**
+     * Puts back a state recovered from the journal, before the lot goes
+     * live. On a gateway, where Items only mirror the authority's, it is
+     * how they are kept up to date.
+     */
+    void restore(BidState recovered) {
+        state.set(recovered);
+        saved.set(recovered);
+        announcedSequence = recovered.sequence;
+    }
+
+    /**
+     * Returns the newest bidding state the journal has saved, which may be
+     * a bid or two behind state().
+     */
+    BidState savedState() {
+        return saved.get();
+    }
+
+    /**
+     * Records that the journal has saved this state. Callbacks for
+     * different bids may arrive in any order; the newest one wins.
+     */
+    void saved(BidState state) {
+        saved.accumulateAndGet(state, (known, now) -> (now.sequence > known.sequence) ? now : known);
+    }
+
+    /**
+     * Takes back every bid since the last saved state, once the journal has
+     * failed to save one of them. The state returns to the saved bid under
+     * a new sequence number, so everything that follows states in sequence
+     * order moves on to it. A close is kept.
+     * @return the state taken back to, or null if there was nothing to take back
+     */
+    BidState rollBack() {
+        while (true) {
+            BidState current = state.get();
+            BidState known = saved.get();
+            if (current.sequence <= known.sequence) {
+                return null;
+            }
+            BidState back = new BidState(known.amount, known.bidder, current.sequence + 1, current.closed);
+            if (state.compareAndSet(current, back)) {
+                saved(back);
+                return back;
+            }
+        }
+    }
+
+    /**
+     * When bidding closes as wall-clock time, for the journal and for a
+     * server that takes over, which do not share this one's nanoTime.
+     * @return epoch millis, or 0 while the lot is not open
+     */
+    long closesAt() {
+        long deadline = closeDeadline.get();
+        if (deadline == 0) {
+            return 0;
+        }
+        return System.currentTimeMillis() + TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+    }
+
+    /**
+     * Stops accepting bids.
+     * @return The final state, i.e. the winning bid if there was one
+     */
+    BidState close() {
+        while (true) {
+            BidState current = state.get();
+            if (current.closed) {
+                return current;
+            }
+            BidState closed = new BidState(current.amount, current.bidder, current.sequence, true);
+            if (state.compareAndSet(current, closed)) {
+                return closed;
+            }
+        }
     }
 
     @Override
     public String toString() {
         return String.format(
-            "Item: '%s' (Start Price: $%.2f, Min Increment: $%.2f)",
-            description, startPrice, minIncrement
+            "Item #%d: '%s' (Start Price: $%s, Min Increment: $%s)",
+            lotId, description, Money.format(startPrice), Money.format(minIncrement)
         );
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,594 @@
+package it.unibz.cn.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Write-ahead journal of the auction: every accepted bid and every lot
+ * opening and closing is appended here, so a restarted server can replay
+ * it and carry on where it stopped (see {@link #recover}).
+ * <p>
+ * Appends are group-committed. A caller encodes its record, copies it into
+ * a shared buffer and returns; one writer thread writes everything that
+ * piled up in one go, forces it to disk if the {@link JournalSync} mode
+ * asks for that, and then runs the callbacks of the records it has just
+ * made durable. While one batch is being written the next one fills up,
+ * so bidders share each fsync instead of queueing for one apiece. If a
+ * write fails the callbacks are told so, and so is every bid after it:
+ * the journal cannot promise anything any more.
+ * <p>
+ * The journal is a directory of segment files, journal-00000001.log and
+ * so on, holding records of the form
+ * <pre>
+ *   int length | int crc32c | byte type | int lot | fields...
+ * </pre>
+ * where length and crc32c cover everything after them. A record cut short
+ * by a crash fails its checksum and ends the replay.
+ * <p>
+ * The same records are what a primary ships to its standby (see
+ * {@link Replication}): each batch is handed to the replica as it is
+ * written, and the standby replays them and appends them to a journal of
+ * its own.
+ */
+final class Journal {
+
+    // Record types
+    static final byte LOT_OPENED = 1; // + long closing time (epoch millis), again when extended
+    static final byte BID = 2; // + long sequence, long amount, u16 length + UTF-8 bidder
+    static final byte LOT_CLOSED = 3;
+
+    private static final int HEADER = 8; // length and checksum
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int INITIAL_BUFFER = 64 * 1024;
+
+    /**
+     * Told whether a bid was journalled. Called on the writer thread, which
+     * every other bidder waits for, so it must be quick.
+     */
+    interface BidCallback {
+        void journalled(boolean durable);
+    }
+
+    /** A journal that keeps nothing and runs every callback at once. */
+    static final Journal DISABLED = new Journal(null, JournalSync.OFF, 0, 0);
+
+    private final Path dir;
+    private final JournalSync sync;
+    private final long segmentBytes;
+    private final long flushNanos;
+
+    // Records not yet handed to the writer, and what to run once they are
+    // durable. Guarded by lock.
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private ByteBuffer pending = ByteBuffer.allocate(INITIAL_BUFFER);
+    private ArrayList<BidCallback> pendingCallbacks = new ArrayList<>();
+    // Callers of roll() waiting for the current segment to be finished
+    private ArrayList<CompletableFuture<Integer>> pendingRolls = new ArrayList<>();
+    private long appended; // Records appended since the journal was opened
+    private boolean closed;
+    // Set for good once a write fails
+    private volatile boolean failed;
+
+    // Gets a read-only view of every batch before it is written, or null
+    private volatile Consumer<ByteBuffer> replica;
+
+    // Only touched by the writer thread
+    private ByteBuffer writing = ByteBuffer.allocate(INITIAL_BUFFER);
+    private ArrayList<BidCallback> callbacks = new ArrayList<>();
+    private FileChannel segment;
+    private int segmentNumber;
+    private boolean dirty; // Written since the last force
+    private long lastForce = System.nanoTime();
+    private Thread writer;
+
+    private Journal(Path dir, JournalSync sync, long segmentBytes, long flushMillis) {
+        this.dir = dir;
+        this.sync = sync;
+        this.segmentBytes = segmentBytes;
+        this.flushNanos = TimeUnit.MILLISECONDS.toNanos(flushMillis);
+    }
+
+    /**
+     * Opens a journal that appends to a new segment in dir, after any that
+     * are already there.
+     * @param segmentBytes Size after which the writer moves on to a new segment
+     * @param flushMillis How often {@link JournalSync#ASYNC} forces to disk
+     */
+    static Journal open(Path dir, JournalSync sync, long segmentBytes, long flushMillis) throws IOException {
+        if (sync == JournalSync.OFF) {
+            return DISABLED;
+        }
+        Files.createDirectories(dir);
+        Journal journal = new Journal(dir, sync, segmentBytes, flushMillis);
+        List<Path> existing = segments(dir);
+        journal.segmentNumber = existing.isEmpty() ? 0 : segmentNumber(existing.get(existing.size() - 1));
+        journal.nextSegment();
+        journal.writer = Thread.ofPlatform().name("journal").daemon().start(journal::writeLoop);
+        return journal;
+    }
+
+    /**
+     * Journals that a lot is open for bidding until closesAt, in epoch
+     * millis. Journalled again whenever the close is pushed back, so a
+     * server that takes over knows how long the lot has left.
+     */
+    void lotOpened(Item item, long closesAt) {
+        ByteBuffer record = record(LOT_OPENED, item.lotId, 8);
+        record.putLong(closesAt);
+        append(record.array(), null);
+    }
+
+    void lotClosed(Item item) {
+        append(record(LOT_CLOSED, item.lotId, 0).array(), null);
+    }
+
+    /**
+     * Journals an accepted bid.
+     * @param onDurable Called once the bid is as durable as the sync mode
+     *        promises, or could not be made so; this is where the bidder
+     *        gets told. On the writer thread unless {@link #acksOnWriter}
+     *        is false.
+     */
+    void bidAccepted(Item item, BidState state, BidCallback onDurable) {
+        if (sync == JournalSync.OFF) {
+            onDurable.journalled(true);
+            return;
+        }
+        byte[] bidder = state.bidder.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = record(BID, item.lotId, 8 + 8 + 2 + bidder.length);
+        record.putLong(state.sequence).putLong(state.amount).putShort((short) bidder.length).put(bidder);
+        append(record.array(), onDurable);
+    }
+
+    /**
+     * Whether bid callbacks run on the writer thread, rather than at once
+     * on the bidder's.
+     */
+    boolean acksOnWriter() {
+        return sync == JournalSync.WRITE || sync == JournalSync.FSYNC;
+    }
+
+    /**
+     * Whether a write has failed. From then on no bid is durable.
+     */
+    boolean failed() {
+        return failed;
+    }
+
+    /**
+     * Appends records that were encoded (and checksummed) elsewhere, as a
+     * standby does with the records its primary ships.
+     * @param records How many records bytes holds
+     */
+    void appendRecords(ByteBuffer bytes, long records) {
+        enqueue(bytes, records, null);
+    }
+
+    /**
+     * Hands every batch written from now on to replica, on the writer
+     * thread, before it is written or any of its bids acknowledged. The
+     * buffer is only valid during the call. Pass null to stop.
+     */
+    void replicateTo(Consumer<ByteBuffer> replica) {
+        this.replica = replica;
+    }
+
+    /**
+     * The records that take a lot from nothing to state: its opening, if
+     * it is open until closesAt (epoch millis, 0 if not), its bid, if it
+     * has one, and its close, if it is closed. A standby starts from these.
+     */
+    static void encodeState(int lotId, BidState state, long closesAt, ByteBuffer out) {
+        if (closesAt != 0) {
+            ByteBuffer record = record(LOT_OPENED, lotId, 8);
+            record.putLong(closesAt);
+            out.put(seal(record.array()));
+        }
+        if (state.hasBids()) {
+            byte[] bidder = state.bidder.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer record = record(BID, lotId, 8 + 8 + 2 + bidder.length);
+            record.putLong(state.sequence).putLong(state.amount).putShort((short) bidder.length).put(bidder);
+            out.put(seal(record.array()));
+        }
+        if (state.closed) {
+            out.put(seal(record(LOT_CLOSED, lotId, 0).array()));
+        }
+    }
+
+    /**
+     * How many bytes of whole records, starting at buf's position, fit in
+     * maxBytes; at least one record however big it is.
+     */
+    static int wholeRecords(ByteBuffer buf, int maxBytes) {
+        int end = buf.position();
+        do {
+            end += HEADER + buf.getInt(end);
+        } while (end < buf.limit() && end + HEADER + buf.getInt(end) - buf.position() <= maxBytes);
+        return end - buf.position();
+    }
+
+    /**
+     * How many records have been appended since the journal was opened.
+     */
+    long appendedRecords() {
+        lock.lock();
+        try {
+            return appended;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Finishes the current segment once everything appended so far is
+     * written to it, and moves on to a new one. Used by {@link Snapshot}:
+     * every record appended before the call ends up in a segment numbered
+     * at most the returned one.
+     * @return The number of the segment just finished
+     */
+    int roll() throws IOException, InterruptedException {
+        if (sync == JournalSync.OFF) {
+            return 0;
+        }
+        CompletableFuture<Integer> rolled = new CompletableFuture<>();
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IOException("Journal is closed");
+            }
+            pendingRolls.add(rolled);
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            return rolled.get();
+        } catch (ExecutionException e) {
+            throw new IOException("Journal roll failed", e.getCause());
+        }
+    }
+
+    /**
+     * Starts a record of the given type with room for extra field bytes
+     * after the lot. Its checksum is filled in by {@link #append}.
+     */
+    private static ByteBuffer record(byte type, int lotId, int extra) {
+        int length = 1 + 4 + extra;
+        ByteBuffer record = ByteBuffer.allocate(HEADER + length);
+        record.putInt(length).putInt(0).put(type).putInt(lotId);
+        return record;
+    }
+
+    /**
+     * Fills in a record's checksum.
+     */
+    private static byte[] seal(byte[] record) {
+        CRC32C crc = new CRC32C();
+        crc.update(record, HEADER, record.length - HEADER);
+        ByteBuffer.wrap(record).putInt(4, (int) crc.getValue());
+        return record;
+    }
+
+    private void append(byte[] record, BidCallback onDurable) {
+        if (sync == JournalSync.OFF) {
+            return;
+        }
+        enqueue(ByteBuffer.wrap(seal(record)), 1, onDurable);
+    }
+
+    private void enqueue(ByteBuffer bytes, long records, BidCallback onDurable) {
+        if (sync == JournalSync.OFF) {
+            return;
+        }
+        // An ASYNC bid is acknowledged without waiting for the writer
+        boolean waitForWriter = onDurable != null && sync != JournalSync.ASYNC;
+        lock.lock();
+        try {
+            if (!closed) {
+                if (pending.remaining() < bytes.remaining()) {
+                    ByteBuffer bigger = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + bytes.remaining()));
+                    pending.flip();
+                    bigger.put(pending);
+                    pending = bigger;
+                }
+                boolean wasEmpty = pending.position() == 0;
+                pending.put(bytes);
+                appended += records;
+                if (waitForWriter) {
+                    pendingCallbacks.add(onDurable);
+                }
+                if (wasEmpty) {
+                    notEmpty.signal(); // The writer only waits while there is nothing
+                }
+            } else {
+                waitForWriter = false; // Shutting down; nothing more is kept
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (onDurable != null && !waitForWriter) {
+            onDurable.journalled(!failed);
+        }
+    }
+
+    /**
+     * Writes whatever is pending, a whole batch per write, until closed.
+     */
+    private void writeLoop() {
+        boolean done = false;
+        List<CompletableFuture<Integer>> rolls = List.of();
+        while (!done) {
+            lock.lock();
+            try {
+                while (pending.position() == 0 && pendingRolls.isEmpty() && !closed) {
+                    if (sync == JournalSync.ASYNC) {
+                        // Wake up now and then to force what was written
+                        if (notEmpty.awaitNanos(flushNanos) <= 0) {
+                            break;
+                        }
+                    } else {
+                        notEmpty.await();
+                    }
+                }
+                done = closed;
+                // Swap buffers, so appends carry on while this batch is written
+                ByteBuffer batch = pending;
+                pending = writing;
+                writing = batch;
+                ArrayList<BidCallback> batchCallbacks = pendingCallbacks;
+                pendingCallbacks = callbacks;
+                callbacks = batchCallbacks;
+                rolls = pendingRolls;
+                pendingRolls = new ArrayList<>();
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+
+            Consumer<ByteBuffer> shipTo = replica;
+            if (shipTo != null && writing.position() > 0) {
+                shipTo.accept(writing.asReadOnlyBuffer().flip());
+            }
+
+            long start = System.nanoTime();
+            try {
+                writeBatch();
+            } catch (IOException e) {
+                if (!failed) {
+                    Log.error("Journal: write failed, no more bids are accepted", e);
+                }
+                failed = true;
+            }
+            if (!callbacks.isEmpty()) {
+                Metrics.journalBatch.record(callbacks.size());
+                Metrics.journalMicros.record(Metrics.micros(start));
+            }
+            boolean durable = !failed;
+            for (BidCallback callback : callbacks) {
+                callback.journalled(durable);
+            }
+            callbacks.clear();
+            if (!rolls.isEmpty()) {
+                rollSegment(rolls);
+            }
+        }
+        try {
+            segment.force(true);
+            segment.close();
+        } catch (IOException e) {
+            Log.error("Journal: close failed: {}", e.getMessage());
+        }
+    }
+
+    private void writeBatch() throws IOException {
+        writing.flip();
+        try {
+            if (writing.hasRemaining()) {
+                while (writing.hasRemaining()) {
+                    segment.write(writing);
+                }
+                dirty = true;
+            }
+            long now = System.nanoTime();
+            if (dirty && (sync == JournalSync.FSYNC || now - lastForce >= flushNanos)) {
+                segment.force(false);
+                dirty = false;
+                lastForce = now;
+            }
+            if (segment.position() >= segmentBytes) {
+                segment.force(true);
+                segment.close();
+                nextSegment();
+            }
+        } finally {
+            writing.clear();
+        }
+    }
+
+    private void rollSegment(List<CompletableFuture<Integer>> rolls) {
+        int finished = segmentNumber;
+        try {
+            segment.force(true);
+            segment.close();
+            nextSegment();
+            for (CompletableFuture<Integer> rolled : rolls) {
+                rolled.complete(finished);
+            }
+        } catch (IOException e) {
+            Log.error("Journal: cannot start a new segment: {}", e.getMessage());
+            for (CompletableFuture<Integer> rolled : rolls) {
+                rolled.completeExceptionally(e);
+            }
+        }
+    }
+
+    private void nextSegment() throws IOException {
+        segmentNumber++;
+        segment = FileChannel.open(
+            dir.resolve(String.format("%s%08d%s", SEGMENT_PREFIX, segmentNumber, SEGMENT_SUFFIX)),
+            StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE
+        );
+    }
+
+    /**
+     * Writes out everything appended so far and stops the writer.
+     */
+    void close() {
+        if (sync == JournalSync.OFF) {
+            return;
+        }
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // --- Recovery ---
+
+    /**
+     * Replays the segments in dir numbered above afterSegment into states,
+     * the bidding state of each lot that has one, and closing times, the
+     * deadline of each lot still open (epoch millis). A damaged record at the
+     * end of a segment, left by a crash in the middle of a write, is cut
+     * off. Replaying a record that states already reflects changes nothing,
+     * so a {@link Snapshot} taken while bidding went on can be brought up to
+     * date this way.
+     */
+    static void recover(Path dir, Map<Integer, BidState> states, Map<Integer, Long> closingTimes, int afterSegment)
+            throws IOException {
+        long records = 0;
+        for (Path file : Files.isDirectory(dir) ? segments(dir) : List.<Path>of()) {
+            if (segmentNumber(file) <= afterSegment) {
+                continue; // Already in the snapshot
+            }
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                ByteBuffer buf = ByteBuffer.allocate((int) channel.size());
+                while (buf.hasRemaining() && channel.read(buf) >= 0) {
+                    // Read the whole segment
+                }
+                buf.flip();
+                records += replay(buf, states, closingTimes);
+                if (buf.position() < buf.limit()) {
+                    Log.warn("Journal: cutting off a damaged record at the end of {}", file);
+                    channel.truncate(buf.position());
+                }
+            }
+        }
+        if (records > 0) {
+            Log.info("Journal: replayed {} records", records);
+        }
+    }
+
+    /**
+     * Applies the records in buf up to the first damaged one, leaving buf
+     * positioned after the last good record.
+     * @return The number of records applied
+     */
+    static long replay(ByteBuffer buf, Map<Integer, BidState> states, Map<Integer, Long> closingTimes) {
+        long records = 0;
+        CRC32C crc = new CRC32C();
+        while (buf.remaining() >= HEADER) {
+            int start = buf.position();
+            int length = buf.getInt(start);
+            int checksum = buf.getInt(start + 4);
+            if (length < 5 || length > buf.remaining() - HEADER) {
+                break;
+            }
+            crc.reset();
+            crc.update(buf.slice(start + HEADER, length));
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+
+            buf.position(start + HEADER);
+            byte type = buf.get();
+            int lotId = buf.getInt();
+            switch (type) {
+                case BID:
+                    long sequence = buf.getLong();
+                    long amount = buf.getLong();
+                    byte[] bidder = new byte[buf.getShort() & 0xFFFF];
+                    buf.get(bidder);
+                    BidState bid = new BidState(amount, new String(bidder, StandardCharsets.UTF_8), sequence, false);
+                    states.merge(lotId, bid, Journal::merge);
+                    break;
+                case LOT_OPENED:
+                    // Older journals did not record the closing time
+                    if (length >= 1 + 4 + 8) {
+                        closingTimes.merge(lotId, buf.getLong(), Math::max);
+                    }
+                    break;
+                case LOT_CLOSED:
+                    states.merge(lotId, new BidState(0, null, 0, true), Journal::merge);
+                    closingTimes.remove(lotId);
+                    break;
+                default:
+                    break;
+            }
+            buf.position(start + HEADER + length);
+            records++;
+        }
+        return records;
+    }
+
+    /**
+     * Combines two states of one lot. Bids may be journalled slightly out
+     * of order, even after the close they lost to, so the highest sequence
+     * number wins and a closed lot stays closed.
+     */
+    static BidState merge(BidState a, BidState b) {
+        BidState latest = (b.sequence > a.sequence) ? b : a;
+        boolean closed = a.closed || b.closed;
+        if (latest.closed == closed) {
+            return latest;
+        }
+        return new BidState(latest.amount, latest.bidder, latest.sequence, closed);
+    }
+
+    /**
+     * The segment files in dir, oldest first.
+     */
+    static List<Path> segments(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files
+                .filter(f -> {
+                    String name = f.getFileName().toString();
+                    return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+                })
+                .sorted()
+                .toList();
+        }
+    }
+
+    static int segmentNumber(Path segment) {
+        String name = segment.getFileName().toString();
+        return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+}
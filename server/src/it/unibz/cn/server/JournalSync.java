@@ -0,0 +1,26 @@
+package it.unibz.cn.server;
+
+/**
+ * How durable the {@link Journal} makes an accepted bid before the bidder
+ * is told it was accepted.
+ */
+enum JournalSync {
+    // No journal; a restart loses every bid
+    OFF,
+    // Acknowledge at once; the journal is written behind and forced to disk
+    // every auction.journalFlushMillis, so a crash loses the last moments
+    ASYNC,
+    // Acknowledge once the bid is written to the OS: survives the server
+    // process dying, but not the machine
+    WRITE,
+    // Acknowledge once the bid is forced to disk: survives a power cut
+    FSYNC;
+
+    static JournalSync parse(String name) {
+        try {
+            return valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown journal sync mode: " + name);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package it.unibz.cn.server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The links between nodes: gateway nodes and the authority node (see
+ * {@link Gateway} and {@link Authority}), and a primary and its standby
+ * (see {@link Replication}). Every message is
+ * <pre>
+ *   int length | opcode (1 byte) | fields
+ *
+ *   gateway to authority:
+ *   BID        request (varint) | lot (varint, 0 = the only open lot)
+ *              | amount in cents (varint) | bidder (UTF-8, rest)
+ *   CHAT       message (UTF-8, rest)
+ *
+ *   authority to gateway:
+ *   LOT_LIVE   lot | start price | min increment | description (UTF-8, rest)
+ *   LOT_STATE  lot | sequence | amount | closed (1 byte) | bidder (UTF-8, rest, empty for none)
+ *   LOT_DONE   lot
+ *   REPLY      request | lot of an accepted bid, else 0 | frame (rest)
+ *   PUBLISH    topic (1 byte) | lot | frame (rest)
+ *
+ *   primary to standby:
+ *   RECORDS    journal records (rest, see Journal)
+ *   HEARTBEAT
+ * </pre>
+ * Numbers are varints as in the {@link BinaryProtocol}. Frames are client
+ * messages already encoded the way writeUTF sends them, so a gateway
+ * passes them on without encoding them again.
+ */
+final class LinkProtocol {
+
+    private LinkProtocol() {
+    }
+
+    static final byte BID = 1;
+    static final byte CHAT = 2;
+    static final byte LOT_LIVE = 3;
+    static final byte LOT_STATE = 4;
+    static final byte LOT_DONE = 5;
+    static final byte REPLY = 6;
+    static final byte PUBLISH = 7;
+    static final byte RECORDS = 8;
+    static final byte HEARTBEAT = 9;
+
+    // Who a published frame is for
+    static final byte TOPIC_EVERYONE = 0;
+    static final byte TOPIC_CHAT = 1;
+    static final byte TOPIC_LOT = 2;
+
+    // Largest message either side accepts
+    static final int MAX_MESSAGE = 1 << 20;
+
+    // Room for the length, the opcode and a few varints
+    private static final int HEADER = 4 + 1 + 4 * 10;
+
+    static Frame bid(long request, int lotId, long amount, String bidder) {
+        byte[] text = bidder.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buf = start(BID, text.length);
+        BinaryProtocol.writeVarLong(buf, request);
+        BinaryProtocol.writeVarLong(buf, lotId);
+        BinaryProtocol.writeVarLong(buf, amount);
+        return finish(buf.put(text));
+    }
+
+    static Frame chat(String message) {
+        byte[] text = message.getBytes(StandardCharsets.UTF_8);
+        return finish(start(CHAT, text.length).put(text));
+    }
+
+    static Frame lotLive(Item item) {
+        byte[] text = item.description.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buf = start(LOT_LIVE, text.length);
+        BinaryProtocol.writeVarLong(buf, item.lotId);
+        BinaryProtocol.writeVarLong(buf, item.startPrice);
+        BinaryProtocol.writeVarLong(buf, item.minIncrement);
+        return finish(buf.put(text));
+    }
+
+    static Frame lotState(int lotId, BidState state) {
+        byte[] text = (state.bidder == null) ? new byte[0] : state.bidder.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buf = start(LOT_STATE, text.length);
+        BinaryProtocol.writeVarLong(buf, lotId);
+        BinaryProtocol.writeVarLong(buf, state.sequence);
+        BinaryProtocol.writeVarLong(buf, state.amount);
+        buf.put((byte) (state.closed ? 1 : 0));
+        return finish(buf.put(text));
+    }
+
+    static Frame lotDone(int lotId) {
+        ByteBuffer buf = start(LOT_DONE, 0);
+        BinaryProtocol.writeVarLong(buf, lotId);
+        return finish(buf);
+    }
+
+    static Frame reply(long request, int acceptedLot, Frame frame) {
+        ByteBuffer buf = start(REPLY, frame.size());
+        BinaryProtocol.writeVarLong(buf, request);
+        BinaryProtocol.writeVarLong(buf, acceptedLot);
+        return finish(buf.put(frame.view()));
+    }
+
+    static Frame publish(byte topic, int lotId, Frame frame) {
+        ByteBuffer buf = start(PUBLISH, frame.size());
+        buf.put(topic);
+        BinaryProtocol.writeVarLong(buf, lotId);
+        return finish(buf.put(frame.view()));
+    }
+
+    static Frame records(ByteBuffer records) {
+        return finish(start(RECORDS, records.remaining()).put(records));
+    }
+
+    static Frame heartbeat() {
+        return finish(start(HEARTBEAT, 0));
+    }
+
+    private static ByteBuffer start(byte opcode, int restBytes) {
+        ByteBuffer buf = ByteBuffer.allocate(HEADER + restBytes);
+        return buf.position(4).put(opcode);
+    }
+
+    private static Frame finish(ByteBuffer buf) {
+        buf.putInt(0, buf.position() - 4).flip();
+        return Frame.wrap(buf);
+    }
+
+    /**
+     * Decodes the rest of the message as UTF-8.
+     */
+    static String readString(ByteBuffer buf) {
+        String s = new String(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining(), StandardCharsets.UTF_8);
+        buf.position(buf.limit());
+        return s;
+    }
+}
@@ -0,0 +1,222 @@
+package it.unibz.cn.server;
+
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The server's log. Callers only check the level and drop a record into a
+ * lock-free ring buffer; a background thread formats the records and
+ * writes them in batches, warnings and errors to stderr and the rest to
+ * stdout. A slow terminal therefore never holds
+ * up an auction thread: if the ring fills up, new records are dropped and
+ * counted instead of waiting.
+ * Messages use "{}" placeholders, filled in on the writer thread:
+ * <pre>
+ *   Log.debug("Client added. Total clients: {}", TCPServer.allClients.size());
+ *   Log.error("Timer task failed", e);
+ * </pre>
+ * A Throwable passed after the arguments the placeholders use is printed
+ * with its stack trace.
+ * The level is set with -Dauction.logLevel (debug, info, warn or error).
+ * Per-client and per-broadcast messages are logged at debug, so the default
+ * info level keeps them off.
+ */
+final class Log {
+
+    private Log() {
+    }
+
+    enum Level {
+        DEBUG,
+        INFO,
+        WARN,
+        ERROR;
+
+        static Level parse(String name) {
+            try {
+                return valueOf(name.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown log level '" + name + "', expected debug, info, warn or error");
+            }
+        }
+    }
+
+    private static final Level LEVEL = Level.parse(System.getProperty("auction.logLevel", "info"));
+
+    // A power of two, so a sequence number maps to its slot with a mask
+    private static final int CAPACITY = Integer.highestOneBit(
+        Math.max(2, Integer.getInteger("auction.logBuffer", 8192))
+    );
+    // Most records formatted into one write
+    private static final int BATCH = 256;
+    // How long the writer sleeps when there is nothing to write
+    private static final long IDLE_NANOS = 1_000_000;
+
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("HH:mm:ss.SSS");
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+
+    /** One message waiting to be written. Never changes once queued. */
+    private record Entry(long millis, Level level, String format, int argCount, Object a, Object b, Object c) {
+    }
+
+    // Slot i holds the record with sequence i (mod CAPACITY), or null while
+    // it is free or the producer that claimed it has not filled it in yet
+    private static final AtomicReferenceArray<Entry> ring = new AtomicReferenceArray<>(CAPACITY);
+    // Next sequence to claim, shared by all producers
+    private static final AtomicLong claimed = new AtomicLong();
+    // Next sequence to write. Only advanced by the writer.
+    private static volatile long written;
+    private static final LongAdder dropped = new LongAdder();
+
+    static {
+        Thread writer = Thread.ofPlatform().name("log-writer").daemon().start(Log::writeLoop);
+        // Write out whatever is still queued when the server stops
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            writer.interrupt();
+            drain();
+        }));
+    }
+
+    static boolean isEnabled(Level level) {
+        return level.compareTo(LEVEL) >= 0;
+    }
+
+    static void debug(String message) {
+        log(Level.DEBUG, message, 0, null, null, null);
+    }
+
+    static void debug(String format, Object a) {
+        log(Level.DEBUG, format, 1, a, null, null);
+    }
+
+    static void debug(String format, Object a, Object b) {
+        log(Level.DEBUG, format, 2, a, b, null);
+    }
+
+    static void info(String message) {
+        log(Level.INFO, message, 0, null, null, null);
+    }
+
+    static void info(String format, Object a) {
+        log(Level.INFO, format, 1, a, null, null);
+    }
+
+    static void info(String format, Object a, Object b) {
+        log(Level.INFO, format, 2, a, b, null);
+    }
+
+    static void info(String format, Object a, Object b, Object c) {
+        log(Level.INFO, format, 3, a, b, c);
+    }
+
+    static void warn(String format, Object a) {
+        log(Level.WARN, format, 1, a, null, null);
+    }
+
+    static void warn(String format, Object a, Object b) {
+        log(Level.WARN, format, 2, a, b, null);
+    }
+
+    static void error(String format, Object a) {
+        log(Level.ERROR, format, 1, a, null, null);
+    }
+
+    /**
+     * Queues a record without blocking. The arguments are formatted later on
+     * the writer thread, so they must not change after the call.
+     */
+    private static void log(Level level, String format, int argCount, Object a, Object b, Object c) {
+        if (!isEnabled(level)) {
+            return;
+        }
+        long sequence;
+        do {
+            sequence = claimed.get();
+            if (sequence - written >= CAPACITY) {
+                dropped.increment(); // Full: the writer is behind
+                return;
+            }
+        } while (!claimed.compareAndSet(sequence, sequence + 1));
+        ring.set((int) sequence & (CAPACITY - 1), new Entry(System.currentTimeMillis(), level, format, argCount, a, b, c));
+    }
+
+    private static void writeLoop() {
+        while (!Thread.currentThread().isInterrupted()) {
+            if (drain() == 0) {
+                LockSupport.parkNanos(IDLE_NANOS);
+            }
+        }
+    }
+
+    /**
+     * Writes every record that is ready, a batch per write and stream.
+     * @return how many records were written
+     */
+    private static synchronized int drain() {
+        StringBuilder text = new StringBuilder(4096);
+        StringBuilder errors = new StringBuilder();
+        int total = 0;
+        while (true) {
+            int count = 0;
+            long next = written;
+            Entry entry;
+            while (count < BATCH && (entry = ring.get((int) next & (CAPACITY - 1))) != null) {
+                ring.set((int) next & (CAPACITY - 1), null);
+                next++;
+                count++;
+                format(entry, entry.level.compareTo(Level.WARN) >= 0 ? errors : text);
+            }
+            long lost = dropped.sumThenReset();
+            if (lost > 0) {
+                errors.append("Log: ").append(lost).append(" messages dropped, the log could not keep up\n");
+            }
+            if (text.length() == 0 && errors.length() == 0) {
+                return total;
+            }
+            written = next;
+            write(System.out, text);
+            write(System.err, errors);
+            total += count;
+        }
+    }
+
+    private static void write(PrintStream out, StringBuilder text) {
+        if (text.length() > 0) {
+            out.print(text);
+            out.flush();
+            text.setLength(0);
+        }
+    }
+
+    private static void format(Entry entry, StringBuilder text) {
+        TIME.formatTo(LocalTime.ofInstant(Instant.ofEpochMilli(entry.millis), ZONE), text);
+        text.append(' ').append(entry.level);
+        for (int i = entry.level.name().length(); i < 6; i++) {
+            text.append(' ');
+        }
+        Object[] args = { entry.a, entry.b, entry.c };
+        String format = entry.format;
+        int arg = 0;
+        int from = 0;
+        int at;
+        while (arg < entry.argCount && (at = format.indexOf("{}", from)) >= 0) {
+            text.append(format, from, at).append(args[arg++]);
+            from = at + 2;
+        }
+        text.append(format, from, format.length()).append('\n');
+        if (arg < entry.argCount && args[entry.argCount - 1] instanceof Throwable thrown) {
+            StringWriter trace = new StringWriter();
+            thrown.printStackTrace(new PrintWriter(trace));
+            text.append(trace);
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package it.unibz.cn.server;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counters and histograms for the server's hot paths. Recording only adds
+ * to LongAdders, which stripe themselves under contention, so the request
+ * path never waits for the instrumentation.
+ * The numbers are published through JMX ({@link AuctionMetricsMXBean}) and
+ * as plain text at http://host:auction.metricsPort/metrics, in the
+ * Prometheus text format.
+ */
+final class Metrics {
+
+    private Metrics() {
+    }
+
+    static final LongAdder connectionsOpened = new LongAdder();
+    static final LongAdder connectionsClosed = new LongAdder();
+    static final LongAdder bidsAccepted = new LongAdder();
+    static final LongAdder bidsRejected = new LongAdder();
+    // Bids that lost a compare-and-set race and had to look again
+    static final LongAdder bidRetries = new LongAdder();
+    static final LongAdder broadcasts = new LongAdder();
+    // Accepted bids never announced on their own because a higher one
+    // overtook them first (see TCPServer.announceHighBid)
+    static final LongAdder bidsCoalesced = new LongAdder();
+    // Commands refused by a client's rate limits (see Throttle)
+    static final LongAdder bidsThrottled = new LongAdder();
+    static final LongAdder chatThrottled = new LongAdder();
+    static final LongAdder queriesThrottled = new LongAdder();
+    // Datagrams sent on the price feed, heartbeats included
+    static final LongAdder feedDatagrams = new LongAdder();
+    static final LongAdder bytesIn = new LongAdder();
+    static final LongAdder bytesOut = new LongAdder();
+    // Messages thrown away by the slow consumer policy
+    static final LongAdder messagesDropped = new LongAdder();
+
+    // Time from a bid arriving to its reply being queued, in microseconds
+    static final Histogram bidMicros = new Histogram();
+    // Time to queue one broadcast for every client, in microseconds
+    static final Histogram broadcastMicros = new Histogram();
+    // Bids made durable by one journal write, and how long that write took
+    static final Histogram journalBatch = new Histogram();
+    static final Histogram journalMicros = new Histogram();
+
+    // Rates over the last full second, updated by the sampler
+    private static volatile long bidsAcceptedPerSecond;
+    private static volatile long bidsRejectedPerSecond;
+
+    static long micros(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Registers the MBean, starts the scrape endpoint (unless
+     * auction.metricsPort is 0; on loopback unless auction.metricsAddress
+     * is set) and the once-a-second rate sampler.
+     */
+    static void start() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                new MBean(), new ObjectName("it.unibz.cn.server:type=AuctionMetrics")
+            );
+        } catch (JMException e) {
+            Log.warn("Metrics: JMX registration failed: {}", e.getMessage());
+        }
+
+        if (ServerConfig.METRICS_PORT != 0) {
+            try {
+                InetSocketAddress address = (ServerConfig.METRICS_ADDRESS == null)
+                    ? new InetSocketAddress(InetAddress.getLoopbackAddress(), ServerConfig.METRICS_PORT)
+                    : new InetSocketAddress(ServerConfig.METRICS_ADDRESS, ServerConfig.METRICS_PORT);
+                HttpServer http = HttpServer.create(address, 0);
+                http.createContext("/metrics", exchange -> {
+                    byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+                    exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                    exchange.sendResponseHeaders(200, body.length);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(body);
+                    }
+                });
+                http.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+                http.start();
+                Log.info("Metrics on http://{}:{}/metrics", address.getHostString(), ServerConfig.METRICS_PORT);
+            } catch (IOException e) {
+                Log.warn("Metrics: cannot serve on port {}: {}", ServerConfig.METRICS_PORT, e.getMessage());
+            }
+        }
+
+        Thread.ofPlatform().name("metrics").daemon().start(Metrics::sampleRates);
+    }
+
+    private static void sampleRates() {
+        long accepted = bidsAccepted.sum();
+        long rejected = bidsRejected.sum();
+        while (true) {
+            try {
+                Thread.sleep(1000);
+            } catch (InterruptedException e) {
+                return;
+            }
+            long nowAccepted = bidsAccepted.sum();
+            long nowRejected = bidsRejected.sum();
+            bidsAcceptedPerSecond = nowAccepted - accepted;
+            bidsRejectedPerSecond = nowRejected - rejected;
+            accepted = nowAccepted;
+            rejected = nowRejected;
+        }
+    }
+
+    /**
+     * Total and largest outbound queue depth over all connected clients.
+     * Walks every client, so it is only done when someone asks.
+     */
+    private static long[] queueDepths() {
+        long total = 0;
+        long max = 0;
+        for (Client c : TCPServer.allClients) {
+            int depth = c.queuedMessages();
+            total += depth;
+            max = Math.max(max, depth);
+        }
+        return new long[] { total, max };
+    }
+
+    /**
+     * All metrics in the Prometheus text format.
+     */
+    static String scrape() {
+        StringBuilder out = new StringBuilder(2048);
+        gauge(out, "auction_connected_clients", "Clients currently connected", TCPServer.allClients.size());
+        counter(out, "auction_connections_opened_total", "Connections accepted", connectionsOpened.sum());
+        counter(out, "auction_connections_closed_total", "Connections closed", connectionsClosed.sum());
+        counter(out, "auction_bids_accepted_total", "Bids that became the high bid", bidsAccepted.sum());
+        counter(out, "auction_bids_rejected_total", "Bids rejected as too low, closed or unknown lot", bidsRejected.sum());
+        gauge(out, "auction_bids_accepted_per_second", "Bids accepted during the last second", bidsAcceptedPerSecond);
+        gauge(out, "auction_bids_rejected_per_second", "Bids rejected during the last second", bidsRejectedPerSecond);
+        counter(out, "auction_bids_throttled_total", "Bids refused by the sender's rate limit", bidsThrottled.sum());
+        counter(out, "auction_chat_throttled_total", "Chat lines dropped by a rate limit", chatThrottled.sum());
+        counter(out, "auction_queries_throttled_total", "Other commands dropped by a rate limit", queriesThrottled.sum());
+        counter(out, "auction_bid_retries_total", "Bids that lost a compare-and-set race and retried", bidRetries.sum());
+        summary(out, "auction_bid_micros", "Time to handle one bid up to its reply", bidMicros);
+        counter(out, "auction_broadcasts_total", "Messages broadcast to subscribers", broadcasts.sum());
+        counter(out, "auction_bids_coalesced_total", "Accepted bids overtaken before they were announced",
+            bidsCoalesced.sum());
+        counter(out, "auction_feed_datagrams_total", "Datagrams sent on the price feed", feedDatagrams.sum());
+        summary(out, "auction_broadcast_fanout_micros", "Time to queue one broadcast for every client", broadcastMicros);
+        summary(out, "auction_journal_batch_bids", "Bids made durable by one journal write", journalBatch);
+        summary(out, "auction_journal_write_micros", "Time to write (and force) one journal batch", journalMicros);
+        long[] depths = queueDepths();
+        gauge(out, "auction_outbound_queued_messages", "Messages waiting in all outbound queues", depths[0]);
+        gauge(out, "auction_outbound_queue_max_depth", "Deepest outbound queue of any client", depths[1]);
+        counter(out, "auction_outbound_dropped_total", "Messages dropped by the slow consumer policy", messagesDropped.sum());
+        counter(out, "auction_bytes_in_total", "Bytes received from clients", bytesIn.sum());
+        counter(out, "auction_bytes_out_total", "Bytes written to clients", bytesOut.sum());
+        return out.toString();
+    }
+
+    private static void counter(StringBuilder out, String name, String help, long value) {
+        header(out, name, help, "counter");
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void gauge(StringBuilder out, String name, String help, long value) {
+        header(out, name, help, "gauge");
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void summary(StringBuilder out, String name, String help, Histogram histogram) {
+        header(out, name, help, "summary");
+        for (String quantile : new String[] { "0.5", "0.9", "0.99", "0.999" }) {
+            out.append(name).append("{quantile=\"").append(quantile).append("\"} ")
+                .append(histogram.percentile(Double.parseDouble(quantile) * 100)).append('\n');
+        }
+        out.append(name).append("_sum ").append(histogram.sum()).append('\n');
+        out.append(name).append("_count ").append(histogram.count()).append('\n');
+    }
+
+    private static void header(StringBuilder out, String name, String help, String type) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    /**
+     * Read-only JMX view of the metrics.
+     */
+    public interface AuctionMetricsMXBean {
+        int getConnectedClients();
+        long getConnectionsOpened();
+        long getBidsAccepted();
+        long getBidsRejected();
+        long getBidsAcceptedPerSecond();
+        long getBidsRejectedPerSecond();
+        long getBidRetries();
+        long getBidMicrosP50();
+        long getBidMicrosP99();
+        long getBidMicrosMax();
+        long getBroadcasts();
+        long getBidsCoalesced();
+        long getBidsThrottled();
+        long getChatThrottled();
+        long getQueriesThrottled();
+        long getFeedDatagrams();
+        long getBroadcastFanoutMicrosP50();
+        long getBroadcastFanoutMicrosP99();
+        long getBroadcastFanoutMicrosMax();
+        long getOutboundQueuedMessages();
+        long getOutboundQueueMaxDepth();
+        long getOutboundDropped();
+        long getBytesIn();
+        long getBytesOut();
+    }
+
+    private static final class MBean implements AuctionMetricsMXBean {
+        public int getConnectedClients() { return TCPServer.allClients.size(); }
+        public long getConnectionsOpened() { return connectionsOpened.sum(); }
+        public long getBidsAccepted() { return bidsAccepted.sum(); }
+        public long getBidsRejected() { return bidsRejected.sum(); }
+        public long getBidsAcceptedPerSecond() { return bidsAcceptedPerSecond; }
+        public long getBidsRejectedPerSecond() { return bidsRejectedPerSecond; }
+        public long getBidRetries() { return bidRetries.sum(); }
+        public long getBidMicrosP50() { return bidMicros.percentile(50); }
+        public long getBidMicrosP99() { return bidMicros.percentile(99); }
+        public long getBidMicrosMax() { return bidMicros.max(); }
+        public long getBroadcasts() { return broadcasts.sum(); }
+        public long getBidsCoalesced() { return bidsCoalesced.sum(); }
+        public long getBidsThrottled() { return bidsThrottled.sum(); }
+        public long getChatThrottled() { return chatThrottled.sum(); }
+        public long getQueriesThrottled() { return queriesThrottled.sum(); }
+        public long getFeedDatagrams() { return feedDatagrams.sum(); }
+        public long getBroadcastFanoutMicrosP50() { return broadcastMicros.percentile(50); }
+        public long getBroadcastFanoutMicrosP99() { return broadcastMicros.percentile(99); }
+        public long getBroadcastFanoutMicrosMax() { return broadcastMicros.max(); }
+        public long getOutboundQueuedMessages() { return queueDepths()[0]; }
+        public long getOutboundQueueMaxDepth() { return queueDepths()[1]; }
+        public long getOutboundDropped() { return messagesDropped.sum(); }
+        public long getBytesIn() { return bytesIn.sum(); }
+        public long getBytesOut() { return bytesOut.sum(); }
+    }
+}
@@ -0,0 +1,103 @@
+package it.unibz.cn.server;
+
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+
+/**
+ * The framing used by DataOutputStream.writeUTF and DataInputStream.readUTF:
+ * a two byte big-endian length followed by the string in modified UTF-8.
+ * The NIO path cannot use the stream classes, so it encodes and decodes
+ * frames here instead.
+ */
+final class ModifiedUtf8 {
+
+    // Largest payload a two byte length prefix can describe
+    static final int MAX_LENGTH = 65535;
+
+    private ModifiedUtf8() {
+    }
+
+    /**
+     * Encodes a string exactly as writeUTF would, length prefix included.
+     */
+    static byte[] encodeFrame(String str) throws UTFDataFormatException {
+        int strlen = str.length();
+        int utflen = strlen;
+        for (int i = 0; i < strlen; i++) {
+            int c = str.charAt(i);
+            if (c >= 0x80 || c == 0) {
+                utflen += (c >= 0x800) ? 2 : 1;
+            }
+        }
+        if (utflen > MAX_LENGTH) {
+            throw new UTFDataFormatException("encoded string too long: " + utflen + " bytes");
+        }
+
+        byte[] bytes = new byte[utflen + 2];
+        bytes[0] = (byte) (utflen >>> 8);
+        bytes[1] = (byte) utflen;
+        int count = 2;
+        for (int i = 0; i < strlen; i++) {
+            int c = str.charAt(i);
+            if (c >= 0x01 && c <= 0x7F) {
+                bytes[count++] = (byte) c;
+            } else if (c >= 0x800) {
+                bytes[count++] = (byte) (0xE0 | ((c >> 12) & 0x0F));
+                bytes[count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                bytes[count++] = (byte) (0x80 | (c & 0x3F));
+            } else {
+                bytes[count++] = (byte) (0xC0 | ((c >> 6) & 0x1F));
+                bytes[count++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Decodes utflen bytes of modified UTF-8 starting at the buffer's
+     * position, leaving the position just past them.
+     */
+    static String decode(ByteBuffer buf, int utflen) throws UTFDataFormatException {
+        char[] chars = new char[utflen];
+        int count = 0;
+        int end = buf.position() + utflen;
+        while (buf.position() < end) {
+            int c = buf.get() & 0xFF;
+            switch (c >> 4) {
+                case 0: case 1: case 2: case 3: case 4: case 5: case 6: case 7:
+                    // 0xxxxxxx
+                    chars[count++] = (char) c;
+                    break;
+                case 12: case 13: {
+                    // 110x xxxx   10xx xxxx
+                    if (buf.position() + 1 > end) {
+                        throw new UTFDataFormatException("malformed input: partial character at end");
+                    }
+                    int char2 = buf.get();
+                    if ((char2 & 0xC0) != 0x80) {
+                        throw new UTFDataFormatException("malformed input around byte " + buf.position());
+                    }
+                    chars[count++] = (char) (((c & 0x1F) << 6) | (char2 & 0x3F));
+                    break;
+                }
+                case 14: {
+                    // 1110 xxxx  10xx xxxx  10xx xxxx
+                    if (buf.position() + 2 > end) {
+                        throw new UTFDataFormatException("malformed input: partial character at end");
+                    }
+                    int char2 = buf.get();
+                    int char3 = buf.get();
+                    if (((char2 & 0xC0) != 0x80) || ((char3 & 0xC0) != 0x80)) {
+                        throw new UTFDataFormatException("malformed input around byte " + buf.position());
+                    }
+                    chars[count++] = (char) (((c & 0x0F) << 12) | ((char2 & 0x3F) << 6) | (char3 & 0x3F));
+                    break;
+                }
+                default:
+                    // 10xx xxxx,  1111 xxxx
+                    throw new UTFDataFormatException("malformed input around byte " + buf.position());
+            }
+        }
+        return new String(chars, 0, count);
+    }
+}
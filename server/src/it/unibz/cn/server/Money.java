@@ -0,0 +1,88 @@
+package it.unibz.cn.server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Amounts of money are longs counting cents, so bids compare exactly and
+ * never pick up floating point rounding. This class parses and prints them.
+ */
+final class Money {
+
+    // Keeps dollars * 100 + cents far away from overflowing a long
+    private static final int MAX_DOLLAR_DIGITS = 15;
+    // The largest amount parseCents accepts, for amounts that arrive as numbers
+    static final long MAX_CENTS = 99_999_999_999_999_999L;
+
+    private Money() {
+    }
+
+    /**
+     * Formats cents as dollars with two decimals, e.g. 100050 as "1000.50".
+     */
+    static String format(long cents) {
+        StringBuilder sb = new StringBuilder(16);
+        if (cents < 0) {
+            sb.append('-');
+            cents = -cents;
+        }
+        long rest = cents % 100;
+        sb.append(cents / 100).append('.');
+        if (rest < 10) {
+            sb.append('0');
+        }
+        return sb.append(rest).toString();
+    }
+
+    /**
+     * Parses an amount such as "1000", "1000.5" or "1000.50" from the ASCII
+     * bytes buf[start..end) without creating any objects.
+     * @return the amount in cents, or -1 if it is not a valid amount
+     */
+    static long parseCents(ByteBuffer buf, int start, int end) {
+        long dollars = 0;
+        int i = start;
+        while (i < end && isDigit(buf.get(i))) {
+            dollars = dollars * 10 + (buf.get(i) - '0');
+            i++;
+        }
+        int dollarDigits = i - start;
+        if (dollarDigits > MAX_DOLLAR_DIGITS) {
+            return -1;
+        }
+        long cents = 0;
+        int centDigits = 0;
+        if (i < end && buf.get(i) == '.') {
+            i++;
+            while (i < end && isDigit(buf.get(i)) && centDigits < 2) {
+                cents = cents * 10 + (buf.get(i) - '0');
+                centDigits++;
+                i++;
+            }
+            if (centDigits == 0) {
+                return -1;
+            }
+            if (centDigits == 1) {
+                cents *= 10;
+            }
+        }
+        if (i != end || dollarDigits + centDigits == 0) {
+            return -1; // Trailing junk, a third decimal, or no digits at all
+        }
+        return dollars * 100 + cents;
+    }
+
+    /**
+     * Parses an amount such as "1000.50" from a String, e.g. a catalogue
+     * field.
+     * @return the amount in cents, or -1 if it is not a valid amount
+     */
+    static long parseCents(String amount) {
+        byte[] bytes = amount.getBytes(StandardCharsets.US_ASCII);
+        return parseCents(ByteBuffer.wrap(bytes), 0, bytes.length);
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+}
@@ -0,0 +1,200 @@
+package it.unibz.cn.server;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A client served by a {@link Reactor} in {@link ServerMode#NIO}. Reads
+ * writeUTF frames out of a non-blocking channel and queues its output until
+ * the channel is writable, so no thread ever blocks on this client.
+ */
+final class NioConnection extends Client {
+
+    private static final int INITIAL_READ_BUFFER = 1024;
+    private static final int MAX_READ_BUFFER = 2 + ModifiedUtf8.MAX_LENGTH;
+    // Most frames one gathering write hands to the socket
+    private static final int WRITE_BATCH = 64;
+
+    private final SocketChannel channel;
+    private final Reactor reactor;
+    private final SocketAddress remoteAddress;
+    private SelectionKey key;
+
+    // Only touched by the reactor thread
+    private ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_READ_BUFFER);
+
+    // Frames waiting for the channel to become writable
+    private final OutboundQueue outbound = new OutboundQueue(
+        ServerConfig.OUTBOUND_QUEUE, ServerConfig.SLOW_CONSUMER_POLICY
+    );
+    // Views of the frames currently being written, batch[writeStart..writeEnd).
+    // Only touched by the reactor thread.
+    private final ByteBuffer[] batch = new ByteBuffer[WRITE_BATCH];
+    private int writeStart;
+    private int writeEnd;
+    private final AtomicBoolean writeRequested = new AtomicBoolean();
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    NioConnection(SocketChannel channel, Reactor reactor) throws IOException {
+        this.channel = channel;
+        this.reactor = reactor;
+        this.remoteAddress = channel.getRemoteAddress();
+    }
+
+    /**
+     * Called by the reactor once the channel is registered with its selector.
+     */
+    void onRegistered(SelectionKey key) {
+        this.key = key;
+        // Add this client to the global list
+        TCPServer.allClients.add(this);
+        Subscriptions.register(this);
+        Metrics.connectionsOpened.increment();
+        Log.debug("Client added. Total clients: {}", TCPServer.allClients.size());
+
+        // Send welcome message and current status
+        Commands.sendWelcomeMessage(this);
+    }
+
+    /**
+     * Reads whatever is available and handles every complete frame.
+     */
+    void onReadable() {
+        try {
+            int read = channel.read(readBuffer);
+            if (read < 0) {
+                Log.debug("Client disconnected: {}", remoteAddress);
+                close();
+                return;
+            }
+
+            Metrics.bytesIn.add(read);
+
+            readBuffer.flip();
+            while (readBuffer.remaining() >= 2) {
+                int length = readBuffer.getShort(readBuffer.position()) & 0xFFFF;
+                if (readBuffer.remaining() < 2 + length) {
+                    break; // Wait for the rest of the frame
+                }
+                int frameEnd = readBuffer.position() + 2 + length;
+                int limit = readBuffer.limit();
+                readBuffer.position(readBuffer.position() + 2).limit(frameEnd);
+                boolean keepOpen = Commands.handleFrame(readBuffer, this);
+                readBuffer.limit(limit).position(frameEnd);
+                if (!keepOpen) {
+                    close(); // Client requested disconnect
+                    return;
+                }
+            }
+            readBuffer.compact();
+
+            // A full buffer holding a partial frame means the frame is larger
+            // than the buffer, so grow it up to the largest possible frame
+            if (!readBuffer.hasRemaining() && readBuffer.capacity() < MAX_READ_BUFFER) {
+                ByteBuffer bigger = ByteBuffer.allocate(Math.min(readBuffer.capacity() * 2, MAX_READ_BUFFER));
+                readBuffer.flip();
+                bigger.put(readBuffer);
+                readBuffer = bigger;
+            }
+        } catch (IOException e) {
+            Log.debug("IO: {}", e.getMessage());
+            close();
+        }
+    }
+
+    /**
+     * Writes queued frames until the queue is empty or the socket is full,
+     * a batch at a time with gathering writes.
+     */
+    void onWritable() {
+        try {
+            while (true) {
+                if (writeStart == writeEnd) {
+                    Arrays.fill(batch, 0, writeEnd, null);
+                    writeStart = 0;
+                    writeEnd = outbound.pollBatch(batch);
+                    if (writeEnd == 0) {
+                        break;
+                    }
+                }
+                Metrics.bytesOut.add(channel.write(batch, writeStart, writeEnd - writeStart));
+                while (writeStart < writeEnd && !batch[writeStart].hasRemaining()) {
+                    writeStart++;
+                }
+                if (writeStart < writeEnd) {
+                    return; // Socket buffer is full, keep OP_WRITE and retry later
+                }
+            }
+            key.interestOps(SelectionKey.OP_READ);
+            writeRequested.set(false);
+
+            // A message may have been queued after the loop found the queue empty
+            if (!outbound.isEmpty() && writeRequested.compareAndSet(false, true)) {
+                enableWrite();
+            }
+        } catch (IOException e) {
+            Log.debug("Failed to send to {}: {}", remoteAddress, e.getMessage());
+            close();
+        }
+    }
+
+    /**
+     * Registers interest in OP_WRITE. Only called on the reactor thread.
+     */
+    void enableWrite() {
+        if (key != null && key.isValid()) {
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+    }
+
+    /**
+     * Queues a frame for this client. Never blocks; the reactor writes it
+     * once the socket can take it, and if the client is too far behind the
+     * slow consumer policy applies.
+     */
+    public void send(Frame frame) {
+        if (closed.get()) {
+            return;
+        }
+        if (!outbound.offer(frame)) {
+            Log.info("Disconnecting slow client {}", remoteAddress);
+            close();
+            return;
+        }
+        if (writeRequested.compareAndSet(false, true)) {
+            reactor.requestWrite(this);
+        }
+    }
+
+    int queuedMessages() {
+        return outbound.size();
+    }
+
+    /**
+     * Closes the connection. Safe to call from any thread.
+     */
+    private void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        // Remove client from list and close channel
+        TCPServer.allClients.remove(this);
+        Subscriptions.unregister(this);
+        Metrics.connectionsClosed.increment();
+        Log.debug("Client removed. Total clients: {}", TCPServer.allClients.size());
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            /* close failed */
+        }
+        outbound.close();
+    }
+}
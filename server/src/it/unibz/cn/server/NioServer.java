@@ -0,0 +1,41 @@
+package it.unibz.cn.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * The accept loop for {@link ServerMode#NIO}. Accepted channels are dealt
+ * out round-robin to a fixed set of {@link Reactor} threads.
+ */
+final class NioServer {
+
+    private NioServer() {
+    }
+
+    static void run(int port, int reactorCount) {
+        try (
+            ServerSocketChannel listenChannel = ServerSocketChannel.open();
+        ){
+            Reactor[] reactors = new Reactor[reactorCount];
+            for (int i = 0; i < reactorCount; i++) {
+                reactors[i] = new Reactor("reactor-" + i);
+                reactors[i].start();
+            }
+
+            listenChannel.bind(new InetSocketAddress(port), ServerConfig.BACKLOG);
+            Log.info("Auction Server started on port {} (NIO, {} reactors)", port, reactorCount);
+            Log.info("Waiting for clients...");
+
+            int next = 0;
+            while (true) {
+                SocketChannel clientChannel = listenChannel.accept();
+                reactors[next].register(clientChannel);
+                next = (next + 1) % reactorCount;
+            }
+        } catch (IOException e) {
+            Log.error("Listen Socket error: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package it.unibz.cn.server;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * One end of a link between two nodes, carrying {@link LinkProtocol}
+ * messages. Like a {@link Connection}, the owning thread reads and a writer
+ * thread drains an {@link OutboundQueue}, so sending never blocks. A peer
+ * that falls too far behind is disconnected rather than slowed down for;
+ * a gateway reconnects and starts over from a fresh copy of the auction.
+ */
+final class NodeLink {
+
+    private static final int WRITE_BATCH = 64;
+    private static final int QUEUE = 1 << 16;
+
+    private final SocketChannel channel;
+    private final String peer;
+    private final OutboundQueue outbound = new OutboundQueue(QUEUE, SlowConsumerPolicy.DISCONNECT);
+
+    /**
+     * @param channel A connected channel in blocking mode
+     */
+    NodeLink(SocketChannel channel) throws IOException {
+        this.channel = channel;
+        this.peer = String.valueOf(channel.getRemoteAddress());
+        channel.socket().setTcpNoDelay(true);
+    }
+
+    /**
+     * Parses a node's address, given as "host:port".
+     */
+    static InetSocketAddress address(String hostPort) {
+        int colon = hostPort.lastIndexOf(':');
+        if (colon < 0) {
+            throw new IllegalArgumentException("Node address must be host:port, not " + hostPort);
+        }
+        return new InetSocketAddress(hostPort.substring(0, colon), Integer.parseInt(hostPort.substring(colon + 1)));
+    }
+
+    /**
+     * Queues a message for the other node.
+     */
+    void send(Frame message) {
+        if (!outbound.offer(message)) {
+            Log.warn("Link to {} fell behind; closing it", peer);
+            close();
+        }
+    }
+
+    /**
+     * Reads messages and passes each to handler until the link closes.
+     * The buffer is only valid during the call.
+     */
+    void run(Consumer<ByteBuffer> handler) {
+        Thread writer = Thread.ofVirtual().start(this::writeLoop);
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(channel.socket().getInputStream()));
+            byte[] message = new byte[4096];
+            while (true) {
+                int length = in.readInt();
+                if (length <= 0 || length > LinkProtocol.MAX_MESSAGE) {
+                    throw new IOException("bad message length " + length);
+                }
+                if (length > message.length) {
+                    message = new byte[Math.max(length, message.length * 2)];
+                }
+                in.readFully(message, 0, length);
+                handler.accept(ByteBuffer.wrap(message, 0, length));
+            }
+        } catch (EOFException e) {
+            Log.info("Link to {} closed", peer);
+        } catch (IOException e) {
+            Log.warn("Link to {}: {}", peer, e.getMessage());
+        } catch (RuntimeException e) {
+            Log.warn("Link to {}: malformed message", peer, e);
+        } finally {
+            close();
+            try {
+                writer.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void writeLoop() {
+        ByteBuffer[] batch = new ByteBuffer[WRITE_BATCH];
+        try {
+            int count;
+            while ((count = outbound.takeBatch(batch)) > 0) {
+                while (batch[count - 1].hasRemaining()) {
+                    channel.write(batch, 0, count);
+                }
+                Arrays.fill(batch, 0, count, null);
+            }
+        } catch (IOException e) {
+            Log.debug("Failed to send to {}: {}", peer, e.getMessage());
+            close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    void close() {
+        outbound.close();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            /* close failed */
+        }
+    }
+
+    @Override
+    public String toString() {
+        return peer;
+    }
+}
@@ -0,0 +1,198 @@
+package it.unibz.cn.server;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The bounded queue of frames waiting to be written to one client.
+ * Producers (broadcasts, private replies) never block on it: when it is
+ * full the {@link SlowConsumerPolicy} decides what gives way, among the
+ * broadcasts only.
+ */
+final class OutboundQueue {
+
+    private final ArrayDeque<Frame> messages = new ArrayDeque<>();
+    private final int capacity;
+    private final SlowConsumerPolicy policy;
+
+    // A ReentrantLock so a virtual writer thread waiting here does not pin
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private boolean closed;
+    private long dropped;
+
+    OutboundQueue(int capacity, SlowConsumerPolicy policy) {
+        this.capacity = capacity;
+        this.policy = policy;
+    }
+
+    /**
+     * Queues a frame without blocking. When the queue is full, DROP_OLDEST
+     * and COALESCE only ever discard broadcasts: a private reply (a bid's
+     * answer, /list output) is never lost, and if the queue holds nothing
+     * but replies the client is disconnected instead.
+     * @return false if the queue was full and the client must be disconnected
+     */
+    boolean offer(Frame frame) {
+        lock.lock();
+        try {
+            if (closed) {
+                return true; // The client is going away anyway
+            }
+            if (messages.size() >= capacity) {
+                switch (policy) {
+                    case DROP_OLDEST:
+                        if (!dropOldestBroadcast()) {
+                            if (!frame.broadcast) {
+                                return disconnect();
+                            }
+                            drop(1); // Nothing older to give way; the newest does
+                            return true;
+                        }
+                        break;
+                    case COALESCE:
+                        int skipped = dropBroadcasts();
+                        if (skipped == 0) {
+                            if (!frame.broadcast) {
+                                return disconnect();
+                            }
+                            drop(1);
+                            return true;
+                        }
+                        // May leave the queue one frame over capacity
+                        messages.addLast(Frame.of("[Notice] You fell behind; " + skipped + " messages were skipped."));
+                        break;
+                    case DISCONNECT:
+                        return disconnect();
+                }
+            }
+            messages.addLast(frame);
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean dropOldestBroadcast() {
+        Iterator<Frame> queued = messages.iterator();
+        while (queued.hasNext()) {
+            if (queued.next().broadcast) {
+                queued.remove();
+                drop(1);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes every queued broadcast, keeping the replies in order.
+     * @return how many were removed
+     */
+    private int dropBroadcasts() {
+        int before = messages.size();
+        messages.removeIf(queued -> queued.broadcast);
+        int skipped = before - messages.size();
+        drop(skipped);
+        return skipped;
+    }
+
+    private void drop(int count) {
+        dropped += count;
+        Metrics.messagesDropped.add(count);
+    }
+
+    private boolean disconnect() {
+        closed = true;
+        drop(messages.size());
+        messages.clear();
+        notEmpty.signal();
+        return false;
+    }
+
+    /**
+     * Waits for at least one frame, then moves as many queued frames as fit
+     * into batch, each as its own view, ready for a gathering write.
+     * @return the number of buffers filled in, or 0 once the queue is closed
+     *         and drained
+     */
+    int takeBatch(ByteBuffer[] batch) throws InterruptedException {
+        lock.lock();
+        try {
+            while (messages.isEmpty() && !closed) {
+                notEmpty.await();
+            }
+            return drain(batch);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Like {@link #takeBatch} but returns 0 right away if nothing is queued.
+     */
+    int pollBatch(ByteBuffer[] batch) {
+        lock.lock();
+        try {
+            return drain(batch);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int drain(ByteBuffer[] batch) {
+        int count = 0;
+        Frame frame;
+        while (count < batch.length && (frame = messages.pollFirst()) != null) {
+            batch[count++] = frame.view();
+        }
+        return count;
+    }
+
+    int size() {
+        lock.lock();
+        try {
+            return messages.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean isEmpty() {
+        lock.lock();
+        try {
+            return messages.isEmpty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops accepting messages and wakes up a waiting writer.
+     */
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * How many messages the slow consumer policy has thrown away so far.
+     */
+    long droppedCount() {
+        lock.lock();
+        try {
+            return dropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
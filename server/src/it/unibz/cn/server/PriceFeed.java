@@ -0,0 +1,128 @@
+package it.unibz.cn.server;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * An optional datagram feed of the read-mostly news: lots opening, new
+ * high bids and results. Sent to auction.feedAddress, a multicast group or
+ * a single (e.g. loopback) address, so any number of spectators can follow
+ * the auction without a connection each. Every tick is one datagram:
+ * <pre>
+ *   long sequence | type (1 byte) | int lot | long amount in cents | text (UTF-8, rest)
+ *
+ *   OPEN       amount = start price, text = description
+ *   HIGH_BID   amount = bid, text = bidder
+ *   CLOSED     amount = final bid and text = buyer, 0 and empty if unsold
+ *   HEARTBEAT  lot and amount 0, sequence = that of the last tick
+ * </pre>
+ * Sequence numbers go up by one per tick and datagrams leave in that
+ * order. A receiver that sees one skipped has missed news and should ask
+ * over TCP, with /list, for the lots it follows; the heartbeat reveals a
+ * lost tick even when nothing else is sent, and numbers starting over
+ * mean the server restarted (or a standby took over). Bids and their
+ * replies stay on TCP. The feed is sent by the node running the auction.
+ */
+final class PriceFeed {
+
+    private PriceFeed() {
+    }
+
+    static final byte OPEN = 1;
+    static final byte HIGH_BID = 2;
+    static final byte CLOSED = 3;
+    static final byte HEARTBEAT = 4;
+
+    private static final int HEADER = 8 + 1 + 4 + 8;
+    // Keeps every datagram clear of IP fragmentation
+    private static final int MAX_DATAGRAM = 1200;
+
+    private static volatile DatagramChannel channel; // Null while off
+    private static InetSocketAddress target;
+    // Guarded by the class lock, which also keeps the datagrams in order
+    private static long sequence;
+    private static final ByteBuffer datagram = ByteBuffer.allocate(MAX_DATAGRAM);
+
+    /**
+     * Opens the feed if auction.feedAddress is set.
+     */
+    static void start() {
+        if (ServerConfig.FEED_ADDRESS == null) {
+            return;
+        }
+        try {
+            InetAddress address = InetAddress.getByName(ServerConfig.FEED_ADDRESS);
+            DatagramChannel open = DatagramChannel.open();
+            if (address.isMulticastAddress()) {
+                open.setOption(StandardSocketOptions.IP_MULTICAST_TTL, ServerConfig.FEED_TTL);
+                if (ServerConfig.FEED_INTERFACE != null) {
+                    open.setOption(StandardSocketOptions.IP_MULTICAST_IF,
+                        NetworkInterface.getByName(ServerConfig.FEED_INTERFACE));
+                }
+            }
+            target = new InetSocketAddress(address, ServerConfig.FEED_PORT);
+            channel = open;
+        } catch (IOException e) {
+            Log.warn("Price feed: cannot send to {}: {}", ServerConfig.FEED_ADDRESS, e.getMessage());
+            return;
+        }
+        Log.info("Price feed on {}", target);
+        Thread.ofPlatform().name("feed-heartbeat").daemon().start(() -> {
+            try {
+                while (true) {
+                    Thread.sleep(ServerConfig.FEED_HEARTBEAT_MILLIS);
+                    heartbeat();
+                }
+            } catch (InterruptedException e) {
+                /* stopped */
+            }
+        });
+    }
+
+    static void lotOpen(Item item) {
+        if (channel != null) {
+            send(OPEN, item.lotId, item.startPrice, item.description);
+        }
+    }
+
+    static void highBid(int lotId, BidState state) {
+        if (channel != null) {
+            send(HIGH_BID, lotId, state.amount, state.bidder);
+        }
+    }
+
+    static void lotClosed(int lotId, BidState result) {
+        if (channel != null) {
+            send(CLOSED, lotId, result.hasBids() ? result.amount : 0, result.hasBids() ? result.bidder : "");
+        }
+    }
+
+    private static synchronized void heartbeat() {
+        datagram.clear().putLong(sequence).put(HEARTBEAT).putInt(0).putLong(0);
+        transmit();
+    }
+
+    private static synchronized void send(byte type, int lotId, long amount, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        datagram.clear().putLong(++sequence).put(type).putInt(lotId).putLong(amount);
+        // A long description is cut short; the lot is what matters
+        datagram.put(bytes, 0, Math.min(bytes.length, MAX_DATAGRAM - HEADER));
+        transmit();
+    }
+
+    private static void transmit() {
+        try {
+            channel.send(datagram.flip(), target);
+            Metrics.feedDatagrams.increment();
+        } catch (IOException e) {
+            // Datagrams may be lost anyway; receivers catch up over TCP
+            Log.debug("Price feed: {}", e.getMessage());
+        }
+    }
+}
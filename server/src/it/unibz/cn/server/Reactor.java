@@ -0,0 +1,102 @@
+package it.unibz.cn.server;
+
+import java.io.IOException;
+import java.nio.channels.*;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * One selector thread of the NIO server. Owns a set of client channels and
+ * runs their reads, writes and command handlers, so a handful of reactors
+ * can serve thousands of clients.
+ */
+final class Reactor implements Runnable {
+
+    private final Selector selector;
+    private final Thread thread;
+
+    // Channels handed over by the acceptor, registered on our own thread
+    private final Queue<SocketChannel> newChannels = new ConcurrentLinkedQueue<>();
+    // Connections that have queued output since the last select
+    private final Queue<NioConnection> pendingWrites = new ConcurrentLinkedQueue<>();
+
+    Reactor(String name) throws IOException {
+        this.selector = Selector.open();
+        this.thread = new Thread(this, name);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Hands a freshly accepted channel to this reactor.
+     */
+    void register(SocketChannel channel) {
+        newChannels.add(channel);
+        selector.wakeup();
+    }
+
+    /**
+     * Asks the reactor to start writing a connection's queued output.
+     * Safe to call from any thread.
+     */
+    void requestWrite(NioConnection conn) {
+        if (Thread.currentThread() == thread) {
+            conn.enableWrite();
+        } else {
+            pendingWrites.add(conn);
+            selector.wakeup();
+        }
+    }
+
+    public void run() {
+        while (true) {
+            try {
+                selector.select();
+            } catch (IOException e) {
+                Log.error("Reactor: {}", e.getMessage());
+                return;
+            }
+
+            SocketChannel channel;
+            while ((channel = newChannels.poll()) != null) {
+                registerChannel(channel);
+            }
+            NioConnection conn;
+            while ((conn = pendingWrites.poll()) != null) {
+                conn.enableWrite();
+            }
+
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                conn = (NioConnection) key.attachment();
+                if (key.isValid() && key.isReadable()) {
+                    conn.onReadable();
+                }
+                if (key.isValid() && key.isWritable()) {
+                    conn.onWritable();
+                }
+            }
+        }
+    }
+
+    private void registerChannel(SocketChannel channel) {
+        try {
+            channel.configureBlocking(false);
+            NioConnection conn = new NioConnection(channel, this);
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ, conn);
+            conn.onRegistered(key);
+        } catch (IOException e) {
+            Log.warn("Connection: {}", e.getMessage());
+            try {
+                channel.close();
+            } catch (IOException ex) {
+                /* close failed */
+            }
+        }
+    }
+}
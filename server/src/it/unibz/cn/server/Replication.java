@@ -0,0 +1,211 @@
+package it.unibz.cn.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A hot standby: a second node that follows the primary's journal and
+ * takes over the auction when the primary goes quiet. On one host:
+ * <pre>
+ *   java -Dauction.standbyPort=7800 -Dauction.journalSync=write -Dauction.journalDir=journal-a \
+ *        it.unibz.cn.server.TCPServer nio
+ *   java -Dauction.primary=localhost:7800 -Dauction.journalSync=write -Dauction.journalDir=journal-b \
+ *        -Dauction.metricsPort=0 it.unibz.cn.server.TCPServer nio
+ * </pre>
+ * The primary ships each group-commit batch of its {@link Journal} as it
+ * writes it, without waiting for the standby, so bids are acknowledged no
+ * later than before; what a crash can lose is the batches still on their
+ * way. A standby that connects first gets the state of every lot, encoded
+ * as journal records, while new batches already flow; replaying is
+ * idempotent (see Journal.replay), so the two may overlap in any order.
+ * <p>
+ * The standby replays the records into its catalogue and appends them to
+ * its own journal. Heartbeats come every auction.failoverMillis / 4; once
+ * the primary has been gone for auction.failoverMillis the standby
+ * recovers the way a restarted server does and starts serving clients:
+ * the lots that were open carry on with the time they had left. To fail
+ * back, restart the old primary as the new one's standby.
+ */
+final class Replication {
+
+    private Replication() {
+    }
+
+    // Records per message, well below LinkProtocol.MAX_MESSAGE
+    private static final int CHUNK = 256 * 1024;
+    // Room for the largest record: a bid with a 64 KB name
+    private static final int MAX_RECORD = 64 * 1024 + 64;
+
+    private static final Object lock = new Object();
+    private static NodeLink standby; // Guarded by lock
+
+    // On a standby, when the primary was last heard from (0 for never)
+    private static volatile long lastHeard;
+
+    // --- Primary ---
+
+    /**
+     * Accepts a standby on port, on a background thread. A standby that
+     * connects replaces the one before it.
+     */
+    static void listen(int port) {
+        if (TCPServer.journal == Journal.DISABLED) {
+            Log.warn("A standby needs the journal; not accepting one on port {}", port);
+            return;
+        }
+        Thread.ofPlatform().name("standby-acceptor").daemon().start(() -> {
+            try (ServerSocketChannel listenChannel = ServerSocketChannel.open()) {
+                listenChannel.bind(new InetSocketAddress(port));
+                Log.info("Accepting a standby on port {}", port);
+                while (true) {
+                    SocketChannel channel = listenChannel.accept();
+                    Thread.ofVirtual().start(() -> serve(channel));
+                }
+            } catch (IOException e) {
+                Log.error("Standby link error: {}", e.getMessage());
+            }
+        });
+    }
+
+    private static void serve(SocketChannel channel) {
+        NodeLink link;
+        try {
+            link = new NodeLink(channel);
+        } catch (IOException e) {
+            Log.warn("Standby link: {}", e.getMessage());
+            return;
+        }
+        Journal journal = TCPServer.journal;
+        synchronized (lock) {
+            if (standby != null) {
+                Log.info("Standby {} replaces {}", link, standby);
+                standby.close();
+            }
+            standby = link;
+            // Ship from now on, then the state so far
+            journal.replicateTo(records -> ship(link, records));
+        }
+        sendState(link);
+        Log.info("Standby {} connected", link);
+
+        Thread heartbeat = Thread.ofVirtual().start(() -> heartbeat(link));
+        link.run(message -> {
+            throw new IllegalArgumentException("unexpected opcode " + message.get());
+        });
+        heartbeat.interrupt();
+        synchronized (lock) {
+            if (standby == link) {
+                standby = null;
+                journal.replicateTo(null);
+            }
+        }
+    }
+
+    /**
+     * Sends records in messages of whole records.
+     */
+    private static void ship(NodeLink link, ByteBuffer records) {
+        while (records.hasRemaining()) {
+            int bytes = Journal.wholeRecords(records, CHUNK);
+            link.send(LinkProtocol.records(records.slice(records.position(), bytes)));
+            records.position(records.position() + bytes);
+        }
+    }
+
+    /**
+     * Sends the state of the open lots, with their closing times, and then
+     * of the rest the catalogue knows about, as records that rebuild it
+     * from nothing.
+     */
+    private static void sendState(NodeLink link) {
+        ByteBuffer records = ByteBuffer.allocate(CHUNK + MAX_RECORD);
+        for (Item item : TCPServer.liveLots.values()) {
+            encode(link, item.lotId, item.savedState(), item.closesAt(), records);
+        }
+        TCPServer.catalogue.forEachLot((lotId, state, closesAt) -> encode(link, lotId, state, closesAt, records));
+        ship(link, records.flip());
+    }
+
+    private static void encode(NodeLink link, int lotId, BidState state, long closesAt, ByteBuffer records) {
+        Journal.encodeState(lotId, state, closesAt, records);
+        if (records.position() >= CHUNK) {
+            ship(link, records.flip());
+            records.clear();
+        }
+    }
+
+    private static void heartbeat(NodeLink link) {
+        try {
+            while (true) {
+                Thread.sleep(Math.max(1, ServerConfig.FAILOVER_MILLIS / 4));
+                link.send(LinkProtocol.heartbeat());
+            }
+        } catch (InterruptedException e) {
+            /* link closed */
+        }
+    }
+
+    // --- Standby ---
+
+    /**
+     * Follows the primary at "host:port", applying what it ships, until it
+     * has been gone for auction.failoverMillis. Waits as long as it takes
+     * for the first contact.
+     */
+    static void follow(String primary) {
+        InetSocketAddress address = NodeLink.address(primary);
+        int timeout = (int) ServerConfig.FAILOVER_MILLIS;
+        boolean warned = false;
+        while (true) {
+            try (SocketChannel channel = SocketChannel.open()) {
+                channel.socket().connect(address, timeout);
+                // A primary that sends nothing, not even heartbeats, is gone
+                channel.socket().setSoTimeout(timeout);
+                NodeLink link = new NodeLink(channel);
+                Log.info("Standing by for the primary at {}", address);
+                warned = false;
+                link.run(Replication::apply);
+            } catch (IOException e) {
+                if (!warned) {
+                    Log.warn("Cannot reach the primary at {}: {}; retrying", address, e.getMessage());
+                    warned = true;
+                }
+            }
+            long heard = lastHeard;
+            if (heard != 0 && System.nanoTime() - heard >= ServerConfig.FAILOVER_MILLIS * 1_000_000) {
+                Log.info("The primary at {} is gone; taking over with {} lots known",
+                    address, TCPServer.catalogue.states().size());
+                return;
+            }
+            try {
+                Thread.sleep(Math.min(100, timeout));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private static void apply(ByteBuffer message) {
+        lastHeard = System.nanoTime();
+        byte opcode = message.get();
+        switch (opcode) {
+            case LinkProtocol.RECORDS: {
+                ByteBuffer good = message.duplicate();
+                long records = Journal.replay(good, TCPServer.catalogue.states(), TCPServer.catalogue.closingTimes());
+                if (good.hasRemaining()) {
+                    throw new IllegalArgumentException("damaged record at " + good.position());
+                }
+                TCPServer.journal.appendRecords(message, records);
+                break;
+            }
+            case LinkProtocol.HEARTBEAT:
+                break;
+            default:
+                throw new IllegalArgumentException("unknown opcode " + opcode);
+        }
+    }
+}
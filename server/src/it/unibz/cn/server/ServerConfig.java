@@ -0,0 +1,112 @@
+package it.unibz.cn.server;
+
+/**
+ * Startup settings, read from system properties (e.g. -Dauction.mode=nio).
+ * The mode can also be given as the first command-line argument.
+ */
+final class ServerConfig {
+
+    private ServerConfig() {
+    }
+
+    static final int PORT = Integer.getInteger("auction.port", 7896);
+
+    // Pending connections the OS may queue before accept, sized for join storms
+    static final int BACKLOG = Integer.getInteger("auction.backlog", 4096);
+
+    // Number of selector threads in NIO mode, one per core by default
+    static final int REACTORS = Integer.getInteger(
+        "auction.reactors", Runtime.getRuntime().availableProcessors()
+    );
+
+    // Messages each client may have waiting before the slow consumer policy applies
+    static final int OUTBOUND_QUEUE = Integer.getInteger("auction.outboundQueue", 1024);
+
+    static final SlowConsumerPolicy SLOW_CONSUMER_POLICY = SlowConsumerPolicy.parse(
+        System.getProperty("auction.slowConsumer", "coalesce")
+    );
+
+    // How many lots are auctioned at the same time
+    static final int PARALLEL_LOTS = Integer.getInteger("auction.parallelLots", 1);
+
+    // Auction timings, in seconds
+    static final int START_DELAY_SECONDS = Integer.getInteger("auction.startDelay", 10);
+    static final int PREVIEW_SECONDS = Integer.getInteger("auction.preview", 15);
+    static final int BIDDING_SECONDS = Integer.getInteger("auction.bidding", 45);
+    static final int PAUSE_SECONDS = Integer.getInteger("auction.pause", 10);
+
+    // A bid in the last extendWindow seconds leaves extendBy seconds to
+    // answer it (anti-sniping). 0 turns extensions off.
+    static final int EXTEND_WINDOW_SECONDS = Integer.getInteger("auction.extendWindow", 0);
+    static final int EXTEND_BY_SECONDS = Integer.getInteger("auction.extendBy", 10);
+
+    // Port of the plain-text metrics endpoint, 0 to turn it off, and the
+    // address it listens on: only this host unless set, e.g. to 0.0.0.0
+    static final int METRICS_PORT = Integer.getInteger("auction.metricsPort", 9896);
+    static final String METRICS_ADDRESS = System.getProperty("auction.metricsAddress");
+
+    // File with the lots to auction (.csv or .jsonl, see Catalogue). Without
+    // one the server auctions a few built-in demo lots.
+    static final String CATALOGUE = System.getProperty("auction.catalogue");
+
+    // Bid journal: how durable a bid is before it is acknowledged (off,
+    // async, write or fsync, see JournalSync) and where the journal lives.
+    // Off by default: a server that journals resumes the auction it finds
+    // there, which a demo restarted from scratch does not expect.
+    static final JournalSync JOURNAL_SYNC = JournalSync.parse(System.getProperty("auction.journalSync", "off"));
+    static final String JOURNAL_DIR = System.getProperty("auction.journalDir", "journal");
+    static final long JOURNAL_SEGMENT_BYTES = Long.getLong("auction.journalSegmentBytes", 64L * 1024 * 1024);
+    // How often the async mode forces the journal to disk
+    static final long JOURNAL_FLUSH_MILLIS = Long.getLong("auction.journalFlushMillis", 1000);
+    // How often the whole auction state is snapshotted and the journal
+    // compacted, 0 for never
+    static final int SNAPSHOT_SECONDS = Integer.getInteger("auction.snapshotSeconds", 60);
+
+    // At most one high bid announcement per lot every announce milliseconds,
+    // carrying the latest price; 0 announces every accepted bid
+    static final long ANNOUNCE_MILLIS = Long.getLong("auction.announceMillis", 0);
+
+    // Split deployment (see Authority and Gateway): the port the authority
+    // node takes gateways on (0 for none), and on a gateway node the
+    // authority's host:port, or several separated by commas to try in turn
+    // (an authority and its standby)
+    static final int LINK_PORT = Integer.getInteger("auction.linkPort", 0);
+    static final String AUTHORITY = System.getProperty("auction.authority");
+
+    // Hot standby (see Replication): the port a primary takes its standby on
+    // (0 for none), on a standby the primary's host:port, and how long a
+    // standby waits for a lost primary before taking over
+    static final int STANDBY_PORT = Integer.getInteger("auction.standbyPort", 0);
+    static final String PRIMARY = System.getProperty("auction.primary");
+    static final long FAILOVER_MILLIS = Long.getLong("auction.failoverMillis", 1000);
+
+    // Datagram price feed (see PriceFeed): where to send it, a multicast
+    // group or one address (unset for no feed), the multicast TTL and
+    // interface, and how often a heartbeat goes out
+    static final String FEED_ADDRESS = System.getProperty("auction.feedAddress");
+    static final int FEED_PORT = Integer.getInteger("auction.feedPort", 7897);
+    static final int FEED_TTL = Integer.getInteger("auction.feedTtl", 1);
+    static final String FEED_INTERFACE = System.getProperty("auction.feedInterface");
+    static final long FEED_HEARTBEAT_MILLIS = Long.getLong("auction.feedHeartbeatMillis", 1000);
+
+    // Rate limits per connection (see Throttle): commands per second and
+    // how many may come at once, for bids, chat and queries; a rate of 0
+    // is no limit. Plus chat lines per second from all clients together.
+    static final int BID_RATE = Integer.getInteger("auction.bidRate", 0);
+    static final int BID_BURST = Integer.getInteger("auction.bidBurst", 20);
+    static final int CHAT_RATE = Integer.getInteger("auction.chatRate", 2);
+    static final int CHAT_BURST = Integer.getInteger("auction.chatBurst", 5);
+    static final int QUERY_RATE = Integer.getInteger("auction.queryRate", 10);
+    static final int QUERY_BURST = Integer.getInteger("auction.queryBurst", 20);
+    static final int CHAT_RATE_TOTAL = Integer.getInteger("auction.chatRateTotal", 200);
+
+    // Resolution of the auction timers
+    static final long TIMER_TICK_MILLIS = Long.getLong("auction.timerTick", 100);
+
+    static ServerMode mode(String args[]) {
+        if (args.length >= 1) {
+            return ServerMode.parse(args[0]);
+        }
+        return ServerMode.parse(System.getProperty("auction.mode", "blocking"));
+    }
+}
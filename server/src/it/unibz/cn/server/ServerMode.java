@@ -0,0 +1,24 @@
+package it.unibz.cn.server;
+
+/**
+ * How the server drives client sockets. Chosen once at startup.
+ */
+enum ServerMode {
+    // One platform thread per client, blocking on readUTF (the default)
+    BLOCKING,
+    // The same blocking Connection, but each one on its own virtual thread
+    VIRTUAL,
+    // A few selector threads multiplexing non-blocking channels
+    NIO;
+
+    /**
+     * Parses a mode name as given on the command line, e.g. "nio".
+     */
+    static ServerMode parse(String name) {
+        try {
+            return valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown server mode: " + name);
+        }
+    }
+}
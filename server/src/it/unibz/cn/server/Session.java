@@ -0,0 +1,24 @@
+package it.unibz.cn.server;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A login to the binary protocol. The nickname is bound to a small id once,
+ * so binary frames carry the id instead of repeating the nickname.
+ */
+final class Session {
+
+    private static final AtomicInteger nextId = new AtomicInteger(1);
+
+    final int id;
+    final String nickname;
+
+    private Session(int id, String nickname) {
+        this.id = id;
+        this.nickname = nickname;
+    }
+
+    static Session login(String nickname) {
+        return new Session(nextId.getAndIncrement(), nickname);
+    }
+}
@@ -0,0 +1,23 @@
+package it.unibz.cn.server;
+
+/**
+ * What a client's {@link OutboundQueue} does when it is full, i.e. when the
+ * client reads slower than the server produces messages for it.
+ */
+enum SlowConsumerPolicy {
+    // Discard the oldest queued broadcast to make room for the new message
+    DROP_OLDEST,
+    // Discard every queued broadcast, tell the client, and keep the replies
+    // and the newest message
+    COALESCE,
+    // Give up on the client and close its connection
+    DISCONNECT;
+
+    static SlowConsumerPolicy parse(String name) {
+        try {
+            return valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown slow consumer policy: " + name);
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package it.unibz.cn.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The bidding state of every lot that has one, in one file, so startup
+ * does not have to replay the journal from the beginning of time: map the
+ * snapshot, then replay only the journal segments written after it (see
+ * {@link Journal#recover}). The lots themselves come from the
+ * {@link Catalogue}.
+ * <p>
+ * The file is memory-mapped: a header, a table of fixed-size lot records
+ * sorted by lot id, then the UTF-8 nicknames they point into. Loading
+ * reads only the header; the {@link Catalogue} looks a lot up when it
+ * comes up, with a binary search over the table and a handful of absolute
+ * reads, so startup takes the same time however many lots there are.
+ * <pre>
+ *   header: int magic | int version | int lots | int journal segment | long time
+ *   lot:    int id | int closed | long amount | long sequence
+ *           int bidder offset | int bidder length (-1 for none)
+ *           long closes at (epoch millis, 0 unless the lot is open)
+ *   text:   UTF-8 bidder nicknames
+ * </pre>
+ * A snapshot is taken while bidding goes on. The journal first moves to a
+ * new segment, then each lot's state is read; every record in the older
+ * segments is therefore already reflected, and those segments are deleted.
+ * Records in the newer segments may be reflected too, and replaying them
+ * again is harmless. Version 3 snapshots, whose records are not sorted,
+ * and version 2 ones, without closing times either, still load; their
+ * lot ids are sorted on loading.
+ */
+final class Snapshot {
+
+    private static final int MAGIC = 0x41554353; // "AUCS"
+    private static final int VERSION = 4;
+    private static final int HEADER = 24;
+    private static final int RECORD = 40;
+    private static final int RECORD_V2 = 32;
+    private static final String FILE = "snapshot.bin";
+
+    private final MappedByteBuffer buf;
+    private final int version;
+    private final int record; // Bytes per lot record
+    private final int count;
+    private final int journalSegment;
+    // Record numbers in lot id order for an older snapshot, null when the
+    // records themselves are sorted
+    private final int[] order;
+
+    private Snapshot(MappedByteBuffer buf, int version) {
+        this.buf = buf;
+        this.version = version;
+        this.record = (version == 2) ? RECORD_V2 : RECORD;
+        this.count = buf.getInt(8);
+        this.journalSegment = buf.getInt(12);
+        this.order = (version == VERSION) ? null : sortedOrder();
+    }
+
+    static boolean exists(Path dir) {
+        return Files.isRegularFile(dir.resolve(FILE));
+    }
+
+    /**
+     * Maps the snapshot in dir. Nothing is decoded until a lot is looked
+     * up; the mapping stays valid after a newer snapshot replaces the file.
+     */
+    static Snapshot load(Path dir) throws IOException {
+        try (FileChannel channel = FileChannel.open(dir.resolve(FILE), StandardOpenOption.READ)) {
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int version = buf.getInt(4);
+            if (buf.getInt(0) != MAGIC || version < 2 || version > VERSION) {
+                throw new IOException(FILE + " is not a version " + VERSION + " snapshot");
+            }
+            return new Snapshot(buf, version);
+        }
+    }
+
+    /**
+     * The last journal segment the snapshot covers.
+     */
+    int journalSegment() {
+        return journalSegment;
+    }
+
+    /**
+     * How many lots the snapshot holds.
+     */
+    int size() {
+        return count;
+    }
+
+    /**
+     * Finds a lot by binary search.
+     * @return its index, for the methods below, or -1 if the snapshot does
+     *         not hold it
+     */
+    int find(int lotId) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int id = lotId(middle);
+            if (id < lotId) {
+                low = middle + 1;
+            } else if (id > lotId) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The lot id at index, in increasing order from 0 to size() - 1.
+     */
+    int lotId(int index) {
+        return buf.getInt(at(index));
+    }
+
+    BidState state(int index) {
+        int at = at(index);
+        return new BidState(buf.getLong(at + 8), text(buf, at + 24), buf.getLong(at + 16), buf.getInt(at + 4) != 0);
+    }
+
+    /**
+     * When the lot at index closes.
+     * @return epoch millis, or 0 unless the lot was open
+     */
+    long closesAt(int index) {
+        return (version == 2) ? 0 : buf.getLong(at(index) + 32);
+    }
+
+    private int at(int index) {
+        return HEADER + record * ((order == null) ? index : order[index]);
+    }
+
+    /**
+     * Sorts the record numbers of an older snapshot by lot id.
+     */
+    private int[] sortedOrder() {
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = ((long) buf.getInt(HEADER + record * i) << 32) | i;
+        }
+        Arrays.sort(keys);
+        int[] sorted = new int[count];
+        for (int i = 0; i < count; i++) {
+            sorted[i] = (int) keys[i];
+        }
+        return sorted;
+    }
+
+    /**
+     * The string whose offset and length are at buf[at], or null for
+     * length -1.
+     */
+    private static String text(ByteBuffer buf, int at) {
+        int offset = buf.getInt(at);
+        int length = buf.getInt(at + 4);
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buf.get(offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Takes a snapshot without stopping bidding, then deletes the journal
+     * segments it makes unnecessary.
+     * @param live The items currently up for auction
+     */
+    static void take(Path dir, Journal journal, Catalogue catalogue, Collection<Item> live)
+            throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        int journalSegment = journal.roll();
+
+        // Live lots first: a lot that finishes meanwhile is put in the
+        // catalogue's states before it stops being live, so none is missed.
+        // Each BidState is consistent in itself, and one the journal has
+        // saved: a snapshot must not keep a bid whose write may yet fail.
+        List<Integer> lots = new ArrayList<>();
+        List<BidState> states = new ArrayList<>();
+        List<Long> closingTimes = new ArrayList<>();
+        Set<Integer> seen = new HashSet<>();
+        for (Item item : live) {
+            if (seen.add(item.lotId)) {
+                lots.add(item.lotId);
+                closingTimes.add(item.closesAt());
+                states.add(item.savedState());
+            }
+        }
+        catalogue.forEachLot((lotId, state, closesAt) -> {
+            if (seen.add(lotId)) {
+                lots.add(lotId);
+                states.add(state);
+                closingTimes.add(closesAt);
+            }
+        });
+
+        int count = lots.size();
+        byte[][] bidders = new byte[count][];
+        long textBytes = 0;
+        for (int i = 0; i < count; i++) {
+            String bidder = states.get(i).bidder;
+            if (bidder != null) {
+                bidders[i] = bidder.getBytes(StandardCharsets.UTF_8);
+                textBytes += bidders[i].length;
+            }
+        }
+        long size = HEADER + (long) RECORD * count + textBytes;
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Snapshot would be larger than 2 GB");
+        }
+
+        // Write to a temporary file and swap it in, so a crash midway
+        // leaves the previous snapshot intact
+        Path temporary = dir.resolve(FILE + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buf.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, count).putInt(12, journalSegment)
+                .putLong(16, System.currentTimeMillis());
+            int textAt = HEADER + RECORD * count;
+            // Records in lot id order, for lookups by binary search
+            long[] byId = new long[count];
+            for (int i = 0; i < count; i++) {
+                byId[i] = ((long) lots.get(i) << 32) | i;
+            }
+            Arrays.sort(byId);
+            for (int n = 0, at = HEADER; n < count; n++, at += RECORD) {
+                int i = (int) byId[n];
+                BidState state = states.get(i);
+                buf.putInt(at, lots.get(i)).putInt(at + 4, state.closed ? 1 : 0)
+                    .putLong(at + 8, state.amount).putLong(at + 16, state.sequence)
+                    .putLong(at + 32, closingTimes.get(i));
+                if (bidders[i] == null) {
+                    buf.putInt(at + 24, 0).putInt(at + 28, -1);
+                } else {
+                    buf.putInt(at + 24, textAt).putInt(at + 28, bidders[i].length);
+                    buf.put(textAt, bidders[i]);
+                    textAt += bidders[i].length;
+                }
+            }
+            buf.force();
+        }
+        Files.move(temporary, dir.resolve(FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        // Compaction: the snapshot now covers these segments
+        int deleted = 0;
+        for (Path segment : Journal.segments(dir)) {
+            if (Journal.segmentNumber(segment) <= journalSegment) {
+                Files.delete(segment);
+                deleted++;
+            }
+        }
+        Log.info("Snapshot of {} lots taken in {} ms, {} journal segments compacted",
+            count, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), deleted);
+    }
+
+    /**
+     * Takes a snapshot every intervalSeconds on a background thread, unless
+     * nothing was journalled since the last one.
+     */
+    static void schedule(Path dir, Journal journal, Catalogue catalogue, Collection<Item> live, int intervalSeconds) {
+        Thread.ofPlatform().name("snapshot").daemon().start(() -> {
+            long snapshotAt = 0;
+            while (true) {
+                try {
+                    Thread.sleep(TimeUnit.SECONDS.toMillis(intervalSeconds));
+                    long appended = journal.appendedRecords();
+                    if (appended == snapshotAt) {
+                        continue;
+                    }
+                    take(dir, journal, catalogue, live);
+                    snapshotAt = appended;
+                } catch (InterruptedException e) {
+                    return;
+                } catch (IOException e) {
+                    Log.error("Snapshot failed: {}", e.getMessage());
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,209 @@
+package it.unibz.cn.server;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Who wants which broadcasts. Every connected client gets a small id,
+ * reused after it leaves so the ids stay dense, and each topic is a
+ * {@link ClientSet} over those ids:
+ * <ul>
+ *   <li>each live lot has the clients watching it ("/watch <lot>"),</li>
+ *   <li>{@link #everyLot} has those following all lots, which is where a
+ *       client starts until it watches a particular one,</li>
+ *   <li>{@link #chat} has those who have not muted chat ("/mute chat").</li>
+ * </ul>
+ * A lot's news goes to its watchers plus everyLot, so a broadcast only
+ * costs as much as the interest in it. Bidding on a lot also watches it.
+ * Announcements of new lots and of the end of the auction still go to
+ * everybody, so clients find out what there is to watch.
+ */
+final class Subscriptions {
+
+    private Subscriptions() {
+    }
+
+    static final ClientSet everyLot = new ClientSet();
+    static final ClientSet chat = new ClientSet();
+
+    // Watchers of each live lot. Only lots that are live get an entry, and
+    // it is dropped when the lot closes.
+    private static final Map<Integer, ClientSet> lots = new ConcurrentHashMap<>();
+    private static final ClientSet NOBODY = new ClientSet();
+
+    // Connected clients by id; replaced by a bigger copy when full
+    private static volatile AtomicReferenceArray<Client> clients = new AtomicReferenceArray<>(1024);
+    private static final ArrayDeque<Integer> freeIds = new ArrayDeque<>();
+    private static int nextId = 0;
+
+    /**
+     * Gives a newly connected client an id and the default subscriptions:
+     * every lot and chat.
+     */
+    static void register(Client client) {
+        int id;
+        synchronized (Subscriptions.class) {
+            Integer free = freeIds.poll();
+            id = (free != null) ? free : nextId++;
+            if (id >= clients.length()) {
+                AtomicReferenceArray<Client> bigger = new AtomicReferenceArray<>(clients.length() * 2);
+                for (int i = 0; i < clients.length(); i++) {
+                    bigger.set(i, clients.get(i));
+                }
+                clients = bigger;
+            }
+            clients.set(id, client);
+        }
+        client.subscriberId = id;
+        everyLot.add(id);
+        chat.add(id);
+    }
+
+    /**
+     * Drops a disconnected client from every topic and frees its id.
+     */
+    static void unregister(Client client) {
+        int id = client.subscriberId;
+        if (id < 0) {
+            return;
+        }
+        // Cleared first, so a watch made from here on (a bid reply from the
+        // journal's thread, say) sees the client gone; watch() undoes one
+        // that read the id just before
+        client.subscriberId = -1;
+        everyLot.remove(id);
+        chat.remove(id);
+        for (ClientSet watchers : lots.values()) {
+            watchers.remove(id);
+        }
+        // Only now may another client get the id
+        synchronized (Subscriptions.class) {
+            clients.set(id, null);
+            freeIds.add(id);
+        }
+    }
+
+    /**
+     * Starts following one live lot. A client that was following all lots
+     * now only gets news of the ones it watches.
+     * @return false if the lot is not live
+     */
+    static boolean watch(Client client, int lotId) {
+        int id = client.subscriberId;
+        if (id < 0 || !TCPServer.liveLots.containsKey(lotId)) {
+            return false;
+        }
+        ClientSet watchers = lots.computeIfAbsent(lotId, lot -> new ClientSet());
+        watchers.add(id);
+        // The client may have gone meanwhile; its id must not keep the watch
+        if (client.subscriberId != id) {
+            watchers.remove(id);
+            return false;
+        }
+        everyLot.remove(id);
+        // The lot may have closed meanwhile; don't leave its entry behind
+        if (!TCPServer.liveLots.containsKey(lotId)) {
+            lots.remove(lotId, watchers);
+        }
+        return true;
+    }
+
+    /**
+     * Called after every accepted bid: a bidder wants to hear about the lot
+     * it bid on. Cheap when that is already the case.
+     */
+    static void watchOnBid(Client client, int lotId) {
+        int id = client.subscriberId;
+        if (id < 0 || everyLot.contains(id)) {
+            return;
+        }
+        ClientSet watchers = lots.get(lotId);
+        if (watchers == null || !watchers.contains(id)) {
+            watch(client, lotId);
+        }
+    }
+
+    /**
+     * Stops following one lot. A client that was following all lots keeps
+     * watching the other live ones.
+     */
+    static void unwatch(Client client, int lotId) {
+        int id = client.subscriberId;
+        if (id < 0) {
+            return;
+        }
+        if (everyLot.contains(id)) {
+            for (int other : TCPServer.liveLots.keySet()) {
+                if (other != lotId) {
+                    watch(client, other);
+                }
+            }
+            everyLot.remove(id);
+        }
+        ClientSet watchers = lots.get(lotId);
+        if (watchers != null) {
+            watchers.remove(id);
+        }
+    }
+
+    /**
+     * Follows every lot, or none.
+     */
+    static void watchAll(Client client, boolean all) {
+        int id = client.subscriberId;
+        if (id < 0) {
+            return;
+        }
+        if (all) {
+            everyLot.add(id);
+        } else {
+            everyLot.remove(id);
+        }
+        for (ClientSet watchers : lots.values()) {
+            watchers.remove(id);
+        }
+    }
+
+    static void chat(Client client, boolean on) {
+        int id = client.subscriberId;
+        if (id < 0) {
+            return;
+        }
+        if (on) {
+            chat.add(id);
+        } else {
+            chat.remove(id);
+        }
+    }
+
+    /**
+     * The clients watching one lot in particular; empty if none are.
+     */
+    static ClientSet watchers(int lotId) {
+        return lots.getOrDefault(lotId, NOBODY);
+    }
+
+    /**
+     * Forgets a lot's watchers once it has closed and its last news is out.
+     */
+    static void lotFinished(int lotId) {
+        lots.remove(lotId);
+    }
+
+    /**
+     * Queues frame for every client in topic or alsoTo.
+     * @param alsoTo A second topic, or null
+     */
+    static void send(Frame frame, ClientSet topic, ClientSet alsoTo) {
+        AtomicReferenceArray<Client> byId = clients;
+        ClientSet.forEach(topic, alsoTo, id -> {
+            // An id past the end belongs to a client that joined meanwhile
+            Client client = (id < byId.length()) ? byId.get(id) : null;
+            if (client != null) {
+                client.send(frame);
+            }
+        });
+    }
+}
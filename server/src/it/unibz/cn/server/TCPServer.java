@@ -2,163 +2,466 @@ package it.unibz.cn.server;
 
 import java.net.*;
 import java.io.*;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 public class TCPServer {
-    final static int SERVER_PORT = 7896;
+    final static int SERVER_PORT = ServerConfig.PORT;
     
     // --- Shared Server State ---
 
-    // Thread-safe list for all connected clients
-    static List<Connection> allClients = new CopyOnWriteArrayList<>();
+    // Thread-safe set for all connected clients. Not a CopyOnWriteArrayList:
+    // copying the whole list on every join is quadratic at 50k clients.
+    static Set<Client> allClients = ConcurrentHashMap.newKeySet();
     
-    // List of items to be sold.
+    // The built-in demo lots, sold when no catalogue file is given
     static List<Item> itemsToSell = new ArrayList<>();
+
+    // Where the lots come from, in auction order
+    static Catalogue catalogue;
     
-    // The item currently up for bidding.
-    // Must be volatile to be visible across threads.
-    static volatile Item currentItem = null;
+    // The items currently up for bidding, by lot id. Several lots can be
+    // live at once; each one's bidding state is updated lock-free by
+    // Item.tryBid, so bids on different lots never contend.
+    static final Map<Integer, Item> liveLots = new ConcurrentHashMap<>();
+
+    // Where accepted bids and lot transitions are recorded, so a restart
+    // can pick up the auction where it stopped
+    static Journal journal = Journal.DISABLED;
+
+    // Sends the coalesced high bid announcements, if they are turned on
+    private static final long ANNOUNCE_NANOS = TimeUnit.MILLISECONDS.toNanos(ServerConfig.ANNOUNCE_MILLIS);
+    private static final TimerWheel announcer = (ANNOUNCE_NANOS > 0)
+        ? new TimerWheel("announcer", Math.max(ANNOUNCE_NANOS / 4, 1), TimeUnit.NANOSECONDS, 64)
+        : null;
+
+    // Runs the announcements of bids acknowledged on the journal's writer
+    // thread. Each lot's announcements stay in order however many run at
+    // once (see announceHighBid).
+    private static final ExecutorService bidNews = Executors.newVirtualThreadPerTaskExecutor();
 
-    // A dedicated lock for handling bids and changing the currentItem.
-    // This prevents race conditions 
-    static final Object auctionLock = new Object();
+    // Set on a gateway node, which forwards bids and chat to the authority
+    // node running the auction instead of running one itself
+    static Gateway gateway;
 
     public static void main(String args[]) {
+        ServerMode mode = ServerConfig.mode(args);
         
-        // Initialize the items for auction
-        initializeItems();
+        if (ServerConfig.AUTHORITY != null) {
+            gateway = Gateway.start(ServerConfig.AUTHORITY);
+            Metrics.start();
+        } else {
+            if (!prepareAuction()) {
+                return;
+            }
+            if (ServerConfig.PRIMARY != null) {
+                // A standby: follow the primary until it is gone
+                Replication.follow(ServerConfig.PRIMARY);
+            }
+            startAuction();
+        }
 
-        // Start the "Auctioneer" thread
-        // This thread controls the flow of the auction (e.g., "Item 1 starts... sold!")
-        new Thread(TCPServer::runAuctionLogic).start();
+        if (mode == ServerMode.NIO) {
+            NioServer.run(SERVER_PORT, ServerConfig.REACTORS);
+            return;
+        }
 
         // Start the main server loop to accept new clients
         try (
-            ServerSocket listenSocket = new ServerSocket(SERVER_PORT);
+            ServerSocketChannel listenChannel = ServerSocketChannel.open();
+            ExecutorService connectionExecutor = (mode == ServerMode.VIRTUAL)
+                ? Executors.newVirtualThreadPerTaskExecutor()
+                : Executors.newThreadPerTaskExecutor(Thread.ofPlatform().factory());
         ){
-            System.out.println("Auction Server started on port " + SERVER_PORT);
-            System.out.println("Waiting for clients...");
+            listenChannel.bind(new InetSocketAddress(SERVER_PORT), ServerConfig.BACKLOG);
+            Log.info("Auction Server started on port {} ({})", SERVER_PORT, mode);
+            Log.info("Waiting for clients...");
             
             while (true) {
-                Socket clientSocket = listenSocket.accept();
+                // Channels stay in blocking mode; the Connection writes
+                // encoded frames to them directly
+                SocketChannel clientChannel = listenChannel.accept();
                 // A new connection is created and it adds itself to the allClients list
-                new Connection(clientSocket); 
+                try {
+                    connectionExecutor.execute(new Connection(clientChannel));
+                } catch (IOException e) {
+                    Log.warn("Connection: {}", e.getMessage());
+                    clientChannel.close();
+                }
             }
         } catch (IOException e) {
-            System.out.println("Listen Socket error: " + e.getMessage());
+            Log.error("Listen Socket error: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Recovers the auction from the journal and opens the catalogue.
+     * @return false if the auction cannot start
+     */
+    private static boolean prepareAuction() {
+        // What is known about the lots from before a restart: the latest
+        // snapshot plus the journal written since
+        Snapshot snapshot = null;
+        Map<Integer, BidState> recovered = new HashMap<>();
+        Map<Integer, Long> closingTimes = new HashMap<>();
+        if (ServerConfig.JOURNAL_SYNC != JournalSync.OFF) {
+            Path journalDir = Path.of(ServerConfig.JOURNAL_DIR);
+            try {
+                int afterSegment = 0;
+                if (Snapshot.exists(journalDir)) {
+                    long start = System.nanoTime();
+                    snapshot = Snapshot.load(journalDir);
+                    afterSegment = snapshot.journalSegment();
+                    Log.info("Mapped a snapshot of {} lots in {} ms", snapshot.size(), Metrics.micros(start) / 1000);
+                }
+                Journal.recover(journalDir, recovered, closingTimes, afterSegment);
+                if (snapshot != null || !recovered.isEmpty() || !closingTimes.isEmpty()) {
+                    Log.warn("Resuming the auction journalled in {}: lots already closed are skipped."
+                        + " Delete the directory to start afresh.", journalDir.toAbsolutePath());
+                }
+                journal = Journal.open(journalDir, ServerConfig.JOURNAL_SYNC,
+                    ServerConfig.JOURNAL_SEGMENT_BYTES, ServerConfig.JOURNAL_FLUSH_MILLIS);
+            } catch (IOException e) {
+                Log.error("Journal error: {}", e.getMessage());
+                return false;
+            }
+            Runtime.getRuntime().addShutdownHook(new Thread(journal::close));
         }
+
+        // The lots to sell; a catalogue file is read as the auction goes
+        if (ServerConfig.CATALOGUE == null) {
+            initializeItems();
+            catalogue = Catalogue.of(itemsToSell, snapshot, recovered, closingTimes);
+        } else {
+            try {
+                catalogue = Catalogue.open(Path.of(ServerConfig.CATALOGUE), snapshot, recovered, closingTimes);
+            } catch (IOException e) {
+                Log.error("Catalogue error: {}", e.getMessage());
+                return false;
+            }
+        }
+        Log.info("Auctioning lots from the {}", catalogue);
+
+        if (journal != Journal.DISABLED && ServerConfig.SNAPSHOT_SECONDS > 0) {
+            Snapshot.schedule(Path.of(ServerConfig.JOURNAL_DIR), journal, catalogue, liveLots.values(),
+                ServerConfig.SNAPSHOT_SECONDS);
+        }
+        return true;
+    }
+
+    /**
+     * Starts the Auctioneer; on an authority node also lets gateways
+     * connect, and on a primary its standby.
+     */
+    private static void startAuction() {
+        if (ServerConfig.STANDBY_PORT > 0) {
+            Replication.listen(ServerConfig.STANDBY_PORT);
+        }
+        if (ServerConfig.LINK_PORT > 0) {
+            Authority.listen(ServerConfig.LINK_PORT);
+        }
+
+        Metrics.start();
+        PriceFeed.start();
+
+        // Start the "Auctioneer"
+        // It controls the flow of the auction (e.g., "Item 1 starts... sold!")
+        new Auctioneer(catalogue).start();
     }
 
     /**
      * Fills the list of items to be auctioned.
      */
     private static void initializeItems() {
-        itemsToSell.add(new Item("Vintage Monet Painting", 1000.0, 50.0));
-        itemsToSell.add(new Item("Antique Roman Coin", 150.0, 10.0));
-        itemsToSell.add(new Item("Signed 1st Edition 'Ulysses'", 800.0, 40.0));
-        System.out.println("Initialized " + itemsToSell.size() + " items for auction.");
+        // Prices in cents
+        itemsToSell.add(new Item(1, "Vintage Monet Painting", 100000, 5000));
+        itemsToSell.add(new Item(2, "Antique Roman Coin", 15000, 1000));
+        itemsToSell.add(new Item(3, "Signed 1st Edition 'Ulysses'", 80000, 4000));
+        Log.info("Initialized {} items for auction.", itemsToSell.size());
     }
 
     /**
-     * The main logic for the auctioneer. This runs in its own thread
-     * and cycles through the items, applying timers.
+     * Sends a message to every single connected client.
+     * Only queues the message on each client's outbound queue, so it is
+     * cheap and a stalled client cannot hold up the others.
      */
-    private static void runAuctionLogic() {
-        try {
-            // Wait 10 seconds on startup for people to join
-            System.out.println("Auctioneer started. Waiting 10s for clients...");
-            Thread.sleep(10000); 
-            
-            for (Item item : itemsToSell) {
-                // Set the new current item and announce it
-                synchronized (auctionLock) {
-                    currentItem = item;
+    public static void broadcast(String message) {
+        publish(LinkProtocol.TOPIC_EVERYONE, 0, message);
+    }
+
+    /**
+     * Sends news of one lot to the clients following it (see
+     * {@link Subscriptions}).
+     */
+    static void broadcast(int lotId, String message) {
+        publish(LinkProtocol.TOPIC_LOT, lotId, message);
+    }
+
+    /**
+     * Sends a chat line to the clients that have not muted chat. On a
+     * gateway it goes to the authority, which sends it to every node.
+     */
+    static void broadcastChat(String message) {
+        if (gateway != null) {
+            gateway.chat(message);
+            return;
+        }
+        publish(LinkProtocol.TOPIC_CHAT, 0, message);
+    }
+
+    private static void publish(byte topic, int lotId, String message) {
+        Log.debug("BROADCAST: {}", message);
+        // Encode once; every client, here or behind a gateway, gets the same bytes
+        Frame frame = Frame.forBroadcast(message);
+        Authority.publish(topic, lotId, frame);
+        fanOut(topic, lotId, frame);
+    }
+
+    /**
+     * Queues an encoded broadcast for the clients of this node it is meant
+     * for. Gateways call this for the broadcasts relayed by the authority.
+     */
+    static void fanOut(byte topic, int lotId, Frame frame) {
+        long start = System.nanoTime();
+        switch (topic) {
+            case LinkProtocol.TOPIC_EVERYONE:
+                for (Client c : allClients) {
+                    c.send(frame);
                 }
-                
-                broadcast("--- NEW ITEM FOR AUCTION ---");
-                broadcast(item.toString());
-                broadcast("Bidding starts in 15 seconds. Type /bid <amount>");
-                Thread.sleep(15000); // 15s preview
-                
-                broadcast(">>> AUCTION OPEN for '" + item.description + "'! <<<");
-                broadcast("You have 45 seconds to bid.");
-                Thread.sleep(45000); // 45s bidding time
-                
-                // Close bidding for this item
-                synchronized (auctionLock) {
-                    broadcast(">>> AUCTION CLOSED for '" + item.description + "'! <<<");
-                    
-                    if (item.currentHighestBidder != null) {
-                        broadcast(String.format(
-                            "SOLD to %s for $%.2f",
-                            item.currentHighestBidder, item.currentHighestBid
-                        ));
+                break;
+            case LinkProtocol.TOPIC_CHAT:
+                Subscriptions.send(frame, Subscriptions.chat, null);
+                break;
+            default:
+                Subscriptions.send(frame, Subscriptions.watchers(lotId), Subscriptions.everyLot);
+        }
+        Metrics.broadcasts.increment();
+        Metrics.broadcastMicros.record(Metrics.micros(start));
+    }
+
+    /**
+     * Attempts to place a bid. This is the only way to modify the auction state.
+     * It takes no lock: the item's state is swapped atomically, losing bids
+     * are rejected right away and the announcement happens afterwards.
+     * @param bidder The nickname of the user bidding
+     * @param lotId The lot being bid on
+     * @param amount The amount they are bidding, in cents
+     * @param conn The client that placed the bid (to send private replies)
+     */
+    public static void placeBid(String bidder, int lotId, long amount, Client conn) {
+        if (gateway != null) {
+            gateway.bid(bidder, lotId, amount, conn);
+            return;
+        }
+        Item item = liveLots.get(lotId);
+        if (item == null) {
+            Metrics.bidsRejected.increment();
+            conn.sendBidReply("[Bid] Rejected: Lot " + lotId + " is not up for auction. Cannot bid.");
+            return;
+        }
+        placeBid(bidder, item, amount, conn);
+    }
+
+    /**
+     * Places a bid without naming a lot, which is only unambiguous while a
+     * single lot is live.
+     */
+    public static void placeBid(String bidder, long amount, Client conn) {
+        if (gateway != null) {
+            gateway.bid(bidder, 0, amount, conn);
+            return;
+        }
+        Item item = soleLiveLot();
+        if (item == null) {
+            Metrics.bidsRejected.increment();
+            if (liveLots.isEmpty()) {
+                conn.sendBidReply("[Bid] Rejected: No auction is currently active. Cannot bid.");
+            } else {
+                conn.sendBidReply("[Bid] Rejected: Several lots are open. Use: /bid <lot> <amount>");
+            }
+            return;
+        }
+        placeBid(bidder, item, amount, conn);
+    }
+
+    /**
+     * Returns the only live lot, or null if there are none or several.
+     */
+    static Item soleLiveLot() {
+        Item only = null;
+        for (Item item : liveLots.values()) {
+            if (only != null) {
+                return null;
+            }
+            only = item;
+        }
+        return only;
+    }
+
+    private static void placeBid(String bidder, Item item, long amount, Client conn) {
+        if (journal.failed()) {
+            // A bid that cannot be saved would be lost by a restart
+            conn.sendBidReply("[Bid] Rejected: Bids cannot be saved right now. Bidding is suspended.");
+            Metrics.bidsRejected.increment();
+            return;
+        }
+        long start = System.nanoTime();
+        BidResult result = item.tryBid(bidder, amount);
+        switch (result.outcome) {
+            case CLOSED:
+                conn.sendBidReply("[Bid] Rejected: Bidding has closed for this item.");
+                Metrics.bidsRejected.increment();
+                Metrics.bidMicros.record(Metrics.micros(start));
+                break;
+            case TOO_LOW:
+                conn.sendBidReply(String.format(
+                    "[Bid] Rejected: Bid too low. Minimum bid is $%s", Money.format(result.minimumBid)
+                ));
+                Metrics.bidsRejected.increment();
+                Metrics.bidMicros.record(Metrics.micros(start));
+                break;
+            case ACCEPTED:
+                // We have a new high bid! Once it is journalled, acknowledge
+                // it. Telling everyone else is left to another thread when
+                // this runs on the journal's writer, which the next batch of
+                // bidders is waiting for. Replies to this client's later
+                // bids wait for this one.
+                Client.BidReply reply = conn.bidReply();
+                journal.bidAccepted(item, result.state, durable -> {
+                    Metrics.bidMicros.record(Metrics.micros(start));
+                    if (!durable) {
+                        // Every bid since the last saved one is taken back,
+                        // this one included, so it really is not the high bid
+                        BidState back = item.rollBack();
+                        reply.send("[Bid] Rejected: Your bid could not be saved. Bidding is suspended.");
+                        Metrics.bidsRejected.increment();
+                        if (back != null) {
+                            Authority.lotState(item.lotId, back);
+                            if (journal.acksOnWriter()) {
+                                bidNews.execute(() -> announceHighBid(item));
+                            } else {
+                                announceHighBid(item);
+                            }
+                        }
+                        return;
+                    }
+                    item.saved(result.state);
+                    conn.bidAccepted(item.lotId);
+                    reply.send(String.format(
+                        "[Bid] Accepted: $%s for '%s' (lot %d)", Money.format(amount), item.description, item.lotId
+                    ));
+                    Metrics.bidsAccepted.increment();
+                    if (journal.acksOnWriter()) {
+                        bidNews.execute(() -> highBidChanged(item, result.state));
                     } else {
-                        broadcast("Item was not sold (no bids).");
+                        highBidChanged(item, result.state);
                     }
-                    
-                    currentItem = null; // No item is active
-                }
-                
-                broadcast("Next item in 10 seconds...");
-                Thread.sleep(10000); // 10s pause
-            }
-            
-            broadcast("--- THE AUCTION IS NOW OVER ---");
-            broadcast("Thank you for participating!");
-            System.out.println("Auctioneer finished.");
-            // Server will continue running, but no new items will be up.
+                });
+                break;
+        }
+    }
 
-        } catch (InterruptedException e) {
-            System.err.println("Auctioneer thread interrupted.");
-            Thread.currentThread().interrupt();
+    /**
+     * Tells everyone about an accepted bid (or soon, when coalescing) and
+     * gives late bidding more time.
+     */
+    private static void highBidChanged(Item item, BidState state) {
+        Authority.lotState(item.lotId, state);
+        if (announcer == null) {
+            announceHighBid(item);
+        } else {
+            announceCoalesced(item);
         }
+        Auctioneer.extendIfLate(item);
     }
 
     /**
-     * Sends a message to every single connected client.
+     * Announces the item's high bid at most once per auction.announceMillis.
+     * The first bid after a quiet spell goes out at once; bids that follow
+     * within the interval share one announcement at its end, which carries
+     * whatever the high bid is by then. In a bid storm watchers therefore
+     * get a steady stream of current prices instead of one message per
+     * bid, most of them already overtaken. The bidder's own reply is not
+     * delayed.
      */
-    public static void broadcast(String message) {
-        System.out.println("BROADCAST: " + message); // Log to server console
-        for (Connection c : allClients) {
-            c.sendMessage(message);
+    private static void announceCoalesced(Item item) {
+        if (!item.announcementDue.compareAndSet(false, true)) {
+            return; // The announcement already due will include this bid
+        }
+        long wait = item.announcedAt + ANNOUNCE_NANOS - System.nanoTime();
+        if (wait <= 0) {
+            sendDueAnnouncement(item);
+        } else {
+            announcer.schedule(() -> sendDueAnnouncement(item), wait, TimeUnit.NANOSECONDS);
         }
     }
 
+    private static void sendDueAnnouncement(Item item) {
+        item.announcedAt = System.nanoTime();
+        // Cleared first: a bid from here on is either in this announcement
+        // or schedules the next one
+        item.announcementDue.set(false);
+        announceHighBid(item);
+    }
+
     /**
-     * Attempts to place a bid. This is the only way to modify the auction state
-     * and is synchronized to be thread-safe.
-     * @param bidder The nickname of the user bidding
-     * @param amount The amount they are bidding
-     * @param conn The connection object of the bidder (to send private replies)
+     * Announces the item's final high bid before the Auctioneer announces
+     * its result. Unlike announceHighBid it does not leave the work to an
+     * announcement in progress but waits for it, so the result cannot
+     * overtake the last price (and a coalesced one still due goes out too).
      */
-    public static void placeBid(String bidder, double amount, Connection conn) {
-        // 10. Synchronize on the lock to check/update the item
-        synchronized (auctionLock) {
-            if (currentItem == null) {
-                conn.sendMessage("[Error] No auction is currently active. Cannot bid.");
+    static void announceFinalBid(Item item) {
+        while (true) {
+            announceHighBid(item);
+            // The sequence is read first: once the flag is seen clear
+            // after it, whoever announced that far has broadcast it
+            long announced = item.announcedSequence;
+            if (announced >= item.savedState().sequence && !item.announcing.get()) {
                 return;
             }
-            
-            double minBid = currentItem.getMinimumNextBid();
-            
-            if (amount < minBid) {
-                conn.sendMessage(String.format(
-                    "[Error] Bid too low. Minimum bid is $%.2f", minBid
-                ));
-            } else {
-                // We have a new high bid!
-                currentItem.currentHighestBid = amount;
-                currentItem.currentHighestBidder = bidder;
-                
-                // Announce the new high bid to everyone
-                broadcast(String.format(
-                    "--- NEW HIGH BID: %s bids $%.2f for '%s' ---",
-                    bidder, amount, currentItem.description
-                ));
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * Broadcasts the item's latest saved high bid: a bid still on its way
+     * to the journal is left to its own callback, so nobody (the price
+     * feed included) hears of a bid a restart could lose. Concurrent
+     * bidders do not wait for each other here: whoever finds no
+     * announcement in progress announces, the others return at once and
+     * their bid is covered by the announcer's next loop. Announcements therefore never go out of order,
+     * and one already overtaken by a higher bid is skipped.
+     */
+    static void announceHighBid(Item item) {
+        while (item.announcing.compareAndSet(false, true)) {
+            try {
+                BidState latest;
+                while ((latest = item.savedState()).sequence > item.announcedSequence) {
+                    Metrics.bidsCoalesced.add(latest.sequence - item.announcedSequence - 1);
+                    item.announcedSequence = latest.sequence;
+                    broadcast(item.lotId, String.format(
+                        "--- NEW HIGH BID: %s bids $%s for '%s' (lot %d) ---",
+                        latest.bidder, Money.format(latest.amount), item.description, item.lotId
+                    ));
+                    PriceFeed.highBid(item.lotId, latest);
+                }
+            } finally {
+                item.announcing.set(false);
+            }
+            // A bid may have landed after our last check but before we let go
+            if (item.savedState().sequence <= item.announcedSequence) {
+                return;
             }
         }
     }
-}
\ No newline at end of file
+}
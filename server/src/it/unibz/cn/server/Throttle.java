@@ -0,0 +1,72 @@
+package it.unibz.cn.server;
+
+/**
+ * The rate limits on what one client sends, one {@link TokenBucket} per
+ * kind of command: bids, chat, and queries (/list, /help, /watch and the
+ * like). Checked as each frame is handled, before any work is done for it,
+ * so a client flooding the server costs it little more than reading.
+ * <p>
+ * Chat is the expensive one, a broadcast to nearly everyone for every
+ * line, so besides each client's own limit there is one for all chat
+ * together. Bids have no such shared limit and are by default not limited
+ * at all: however busy the chat, bids get through. A throttled bid is
+ * still answered, with an error, as every bid is; throttled chat and
+ * queries are dropped with one notice per run of them.
+ */
+final class Throttle {
+
+    private static final TokenBucket allChat = TokenBucket.perSecond(
+        ServerConfig.CHAT_RATE_TOTAL, ServerConfig.CHAT_RATE_TOTAL);
+
+    private final Client client;
+    private final TokenBucket bids = TokenBucket.perSecond(ServerConfig.BID_RATE, ServerConfig.BID_BURST);
+    private final TokenBucket chat = TokenBucket.perSecond(ServerConfig.CHAT_RATE, ServerConfig.CHAT_BURST);
+    private final TokenBucket queries = TokenBucket.perSecond(ServerConfig.QUERY_RATE, ServerConfig.QUERY_BURST);
+
+    // Whether the client has been told about the chat or queries being
+    // dropped since the last one got through
+    private boolean chatNoticed;
+    private boolean queriesNoticed;
+
+    Throttle(Client client) {
+        this.client = client;
+    }
+
+    boolean allowBid() {
+        if (bids.tryTake()) {
+            return true;
+        }
+        Metrics.bidsThrottled.increment();
+        client.sendBidReply("[Bid] Rejected: Too many bids. Please slow down.");
+        return false;
+    }
+
+    boolean allowChat() {
+        if (chat.tryTake()) {
+            if (allChat.tryTake()) {
+                chatNoticed = false;
+                return true;
+            }
+            chat.giveBack(); // Everyone's chat is over the limit, not this client's
+        }
+        Metrics.chatThrottled.increment();
+        if (!chatNoticed) {
+            chatNoticed = true;
+            client.sendMessage("[Throttled] Too much chat; your messages are not being sent.");
+        }
+        return false;
+    }
+
+    boolean allowQuery() {
+        if (queries.tryTake()) {
+            queriesNoticed = false;
+            return true;
+        }
+        Metrics.queriesThrottled.increment();
+        if (!queriesNoticed) {
+            queriesNoticed = true;
+            client.sendMessage("[Throttled] Too many commands; some are being ignored.");
+        }
+        return false;
+    }
+}
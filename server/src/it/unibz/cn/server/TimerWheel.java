@@ -0,0 +1,223 @@
+package it.unibz.cn.server;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A hashed timer wheel: one thread drives any number of pending deadlines.
+ * Time is cut into ticks and each timeout hangs in the bucket of the tick
+ * it expires in (plus a count of whole wheel turns still to wait), so
+ * scheduling and cancelling are O(1) however many timeouts are pending.
+ * Deadlines are only as precise as the tick.
+ * Tasks run on the wheel thread and must not block.
+ */
+final class TimerWheel {
+
+    // Most new timeouts moved into the wheel per tick, so a burst of
+    // schedule() calls cannot delay expiry for long
+    private static final int MAX_TRANSFERS_PER_TICK = 100_000;
+
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final long startTime = System.nanoTime();
+    private final Thread worker;
+
+    // schedule() and cancel() run on any thread; the wheel itself is only
+    // ever touched by the worker, which picks these up once per tick
+    private final Queue<Timeout> added = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+
+    private long tick; // Only touched by the worker
+    private volatile boolean stopped;
+
+    TimerWheel(String name, long tickDuration, TimeUnit unit, int ticksPerWheel) {
+        this.tickNanos = unit.toNanos(tickDuration);
+        // A power of two so the bucket index is a mask, not a division
+        int size = Integer.highestOneBit(Math.max(ticksPerWheel - 1, 1)) << 1;
+        this.wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new Bucket();
+        }
+        this.mask = size - 1;
+        this.worker = new Thread(this::run, name);
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Runs task once, after the given delay.
+     */
+    Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        long deadline = System.nanoTime() - startTime + unit.toNanos(Math.max(delay, 0));
+        Timeout timeout = new Timeout(task, deadline);
+        added.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Stops the wheel. Pending timeouts never run.
+     */
+    void stop() {
+        stopped = true;
+        worker.interrupt();
+    }
+
+    private void run() {
+        while (!stopped) {
+            long deadline = tickNanos * (tick + 1);
+            try {
+                waitUntil(deadline);
+            } catch (InterruptedException e) {
+                return; // Stopped
+            }
+            removeCancelled();
+            transferAdded();
+            wheel[(int) (tick & mask)].expire(deadline);
+            tick++;
+        }
+    }
+
+    private void waitUntil(long deadline) throws InterruptedException {
+        long sleepNanos;
+        while ((sleepNanos = deadline - (System.nanoTime() - startTime)) > 0) {
+            Thread.sleep(TimeUnit.NANOSECONDS.toMillis(sleepNanos + 999_999));
+        }
+    }
+
+    private void transferAdded() {
+        for (int i = 0; i < MAX_TRANSFERS_PER_TICK; i++) {
+            Timeout timeout = added.poll();
+            if (timeout == null) {
+                return;
+            }
+            if (timeout.state.get() == Timeout.CANCELLED) {
+                continue;
+            }
+            long expiryTick = timeout.deadline / tickNanos;
+            timeout.remainingRounds = (expiryTick - tick) / wheel.length;
+            // Already overdue timeouts go in the current bucket
+            long bucketTick = Math.max(expiryTick, tick);
+            wheel[(int) (bucketTick & mask)].add(timeout);
+        }
+    }
+
+    private void removeCancelled() {
+        Timeout timeout;
+        while ((timeout = cancelled.poll()) != null) {
+            if (timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+            }
+        }
+    }
+
+    /**
+     * A pending task. Keep it to cancel the task before it runs.
+     */
+    final class Timeout {
+        private static final int PENDING = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+
+        private final Runnable task;
+        private final long deadline; // Relative to startTime
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+
+        // Only touched by the worker
+        private long remainingRounds;
+        private Bucket bucket;
+        private Timeout prev;
+        private Timeout next;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Cancels the task.
+         * @return false if it has already run or been cancelled
+         */
+        boolean cancel() {
+            if (!state.compareAndSet(PENDING, CANCELLED)) {
+                return false;
+            }
+            cancelled.add(this);
+            return true;
+        }
+
+        private void expire() {
+            if (!state.compareAndSet(PENDING, EXPIRED)) {
+                return;
+            }
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                Log.error("Timer task failed", e);
+            }
+        }
+    }
+
+    /**
+     * The timeouts of one tick, as a doubly linked list so any of them can
+     * be unlinked in O(1).
+     */
+    private static final class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+        void add(Timeout timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        void remove(Timeout timeout) {
+            if (timeout.prev != null) {
+                timeout.prev.next = timeout.next;
+            } else {
+                head = timeout.next;
+            }
+            if (timeout.next != null) {
+                timeout.next.prev = timeout.prev;
+            } else {
+                tail = timeout.prev;
+            }
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+        }
+
+        /**
+         * Runs every timeout due by deadline; the rest wait one more turn.
+         */
+        void expire(long deadline) {
+            Timeout timeout = head;
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.remainingRounds <= 0) {
+                    // A timeout hangs in the bucket of the tick it expires
+                    // in, so it is due by now. Were it not, it would stay
+                    // for the next turn rather than be lost.
+                    assert timeout.deadline <= deadline : "timeout due after its tick";
+                    if (timeout.deadline <= deadline) {
+                        remove(timeout);
+                        timeout.expire();
+                    }
+                } else if (timeout.state.get() == Timeout.CANCELLED) {
+                    remove(timeout);
+                } else {
+                    timeout.remainingRounds--;
+                }
+                timeout = next;
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package it.unibz.cn.server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A lock-free token bucket: tokens come back at a steady rate and at most
+ * burst of them can be saved up. Instead of counting tokens it keeps one
+ * time, when the bucket will be full again; taking a token pushes that
+ * time one interval further, and is refused while it lies more than a
+ * burst's worth of intervals ahead. So a take is a read and a
+ * compare-and-set, with no thread to refill anything.
+ */
+final class TokenBucket {
+
+    /** A bucket that never runs dry. */
+    static final TokenBucket UNLIMITED = new TokenBucket(0, 0);
+
+    private final long intervalNanos; // Between two tokens
+    private final long limitNanos; // How far ahead fullAt may be
+    private final AtomicLong fullAt = new AtomicLong(System.nanoTime());
+
+    private TokenBucket(long intervalNanos, long limitNanos) {
+        this.intervalNanos = intervalNanos;
+        this.limitNanos = limitNanos;
+    }
+
+    /**
+     * @param perSecond Tokens per second, or 0 or less for no limit
+     * @param burst How many tokens can be taken at once
+     */
+    static TokenBucket perSecond(int perSecond, int burst) {
+        if (perSecond <= 0) {
+            return UNLIMITED;
+        }
+        long interval = TimeUnit.SECONDS.toNanos(1) / perSecond;
+        return new TokenBucket(interval, interval * Math.max(burst, 1));
+    }
+
+    /**
+     * Takes a token if there is one.
+     */
+    boolean tryTake() {
+        if (intervalNanos == 0) {
+            return true;
+        }
+        long now = System.nanoTime();
+        while (true) {
+            long full = fullAt.get();
+            // A bucket full since some time ago is just full
+            long next = ((full - now < 0) ? now : full) + intervalNanos;
+            if (next - now > limitNanos) {
+                return false;
+            }
+            if (fullAt.compareAndSet(full, next)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Puts back a token taken with {@link #tryTake} that was not used
+     * after all. A bucket that has filled up meanwhile stays full.
+     */
+    void giveBack() {
+        if (intervalNanos != 0) {
+            fullAt.addAndGet(-intervalNanos);
+        }
+    }
+}
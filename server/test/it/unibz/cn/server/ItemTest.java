@@ -0,0 +1,143 @@
+package it.unibz.cn.server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.jupiter.api.RepeatedTest;
+import org.junit.jupiter.api.Test;
+
+class ItemTest {
+
+    private final Item item = new Item(1, "Test lot", 1000, 50);
+
+    @Test
+    void firstBidMustReachTheStartPrice() {
+        assertEquals(BidResult.Outcome.TOO_LOW, item.tryBid("alice", 999).outcome);
+        BidResult result = item.tryBid("alice", 1000);
+        assertEquals(BidResult.Outcome.ACCEPTED, result.outcome);
+        assertEquals(1000, result.state.amount);
+        assertEquals("alice", result.state.bidder);
+        assertEquals(1, result.state.sequence);
+    }
+
+    @Test
+    void laterBidsMustBeatTheHighBidByTheIncrement() {
+        item.tryBid("alice", 1000);
+        BidResult low = item.tryBid("bob", 1049);
+        assertEquals(BidResult.Outcome.TOO_LOW, low.outcome);
+        assertEquals(1050, low.minimumBid);
+        assertEquals("alice", low.state.bidder);
+        assertEquals(BidResult.Outcome.ACCEPTED, item.tryBid("bob", 1050).outcome);
+        assertEquals(1100, item.getMinimumNextBid());
+    }
+
+    @Test
+    void minimumNextBidSaturatesInsteadOfWrapping() {
+        assertEquals(BidResult.Outcome.ACCEPTED, item.tryBid("alice", Long.MAX_VALUE - 10).outcome);
+        assertEquals(Long.MAX_VALUE, item.getMinimumNextBid());
+        assertEquals(BidResult.Outcome.TOO_LOW, item.tryBid("bob", Long.MAX_VALUE - 1).outcome);
+
+        Item huge = new Item(2, "Huge increment", 1, Long.MAX_VALUE);
+        huge.tryBid("alice", 1);
+        assertEquals(Long.MAX_VALUE, huge.getMinimumNextBid());
+    }
+
+    @Test
+    void closedLotRejectsBidsAndKeepsTheWinner() {
+        item.tryBid("alice", 1000);
+        BidState closed = item.close();
+        assertTrue(closed.closed);
+        assertEquals("alice", closed.bidder);
+        assertSame(closed, item.close());
+        assertEquals(BidResult.Outcome.CLOSED, item.tryBid("bob", 5000).outcome);
+        assertSame(closed, item.state());
+    }
+
+    @Test
+    void rollBackReturnsToTheLastSavedBid() {
+        item.saved(item.tryBid("alice", 1000).state);
+        item.tryBid("bob", 1050);
+        item.tryBid("carol", 1100);
+        item.close();
+
+        BidState back = item.rollBack();
+        assertEquals("alice", back.bidder);
+        assertEquals(1000, back.amount);
+        assertTrue(back.closed);
+        assertEquals(4, back.sequence);
+        assertSame(back, item.savedState());
+        assertNull(item.rollBack());
+    }
+
+    /**
+     * Bidders race each other and the close. Every accepted bid must have
+     * beaten the one before it, and the close must keep exactly the last
+     * one accepted; nothing is accepted after it.
+     */
+    @RepeatedTest(20)
+    void concurrentBidsAndCloseAgree() throws InterruptedException {
+        int bidders = 8;
+        int bidsEach = 2_000;
+        CountDownLatch start = new CountDownLatch(1);
+        List<List<BidState>> accepted = new ArrayList<>();
+        BidState[] closed = new BidState[1];
+        List<Thread> threads = new ArrayList<>();
+        for (int b = 0; b < bidders; b++) {
+            List<BidState> mine = new ArrayList<>();
+            accepted.add(mine);
+            String name = "bidder" + b;
+            threads.add(Thread.ofPlatform().start(() -> {
+                await(start);
+                for (int i = 0; i < bidsEach; i++) {
+                    BidResult result = item.tryBid(name, item.getMinimumNextBid());
+                    if (result.outcome == BidResult.Outcome.ACCEPTED) {
+                        mine.add(result.state);
+                    }
+                }
+            }));
+        }
+        threads.add(Thread.ofPlatform().start(() -> {
+            await(start);
+            // Close in the middle of the bidding, not before or after it
+            while (item.state().sequence < 100) {
+                Thread.onSpinWait();
+            }
+            closed[0] = item.close();
+        }));
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        List<BidState> all = new ArrayList<>();
+        accepted.forEach(all::addAll);
+        all.sort((a, b) -> Long.compare(a.sequence, b.sequence));
+        for (int i = 0; i < all.size(); i++) {
+            assertEquals(i + 1, all.get(i).sequence, "sequence numbers have no gaps or repeats");
+            if (i > 0) {
+                assertTrue(all.get(i).amount >= all.get(i - 1).amount + 50);
+            }
+        }
+        // Sequence numbers 1..n, so no bid was accepted after the close
+        BidState result = closed[0];
+        assertTrue(result.closed);
+        assertEquals(all.size(), result.sequence);
+        if (!all.isEmpty()) {
+            BidState last = all.get(all.size() - 1);
+            assertEquals(last.amount, result.amount);
+            assertEquals(last.bidder, result.bidder);
+        }
+        assertSame(result, item.state());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
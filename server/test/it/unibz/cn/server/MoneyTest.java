@@ -0,0 +1,48 @@
+package it.unibz.cn.server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class MoneyTest {
+
+    @Test
+    void parsesDollarsAndCents() {
+        assertEquals(100000, Money.parseCents("1000"));
+        assertEquals(100050, Money.parseCents("1000.5"));
+        assertEquals(100005, Money.parseCents("1000.05"));
+        assertEquals(50, Money.parseCents(".50"));
+        assertEquals(0, Money.parseCents("0"));
+    }
+
+    @Test
+    void rejectsEmptyAndMalformedInput() {
+        assertEquals(-1, Money.parseCents(""));
+        assertEquals(-1, Money.parseCents("."));
+        assertEquals(-1, Money.parseCents("1000."));
+        assertEquals(-1, Money.parseCents("-5"));
+        assertEquals(-1, Money.parseCents("12abc"));
+        assertEquals(-1, Money.parseCents("1,000"));
+    }
+
+    @Test
+    void rejectsMoreThanTwoDecimals() {
+        assertEquals(-1, Money.parseCents("1000.505"));
+        assertEquals(-1, Money.parseCents("0.001"));
+    }
+
+    @Test
+    void rejectsAmountsThatWouldOverflow() {
+        assertEquals(Money.MAX_CENTS, Money.parseCents("999999999999999.99"));
+        assertEquals(-1, Money.parseCents("1000000000000000"));
+        assertEquals(-1, Money.parseCents("99999999999999999999999"));
+    }
+
+    @Test
+    void formatsWithTwoDecimals() {
+        assertEquals("1000.50", Money.format(100050));
+        assertEquals("0.05", Money.format(5));
+        assertEquals("-1.00", Money.format(-100));
+        assertEquals(100050, Money.parseCents(Money.format(100050)));
+    }
+}